@@ -0,0 +1,361 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.Files.FileType;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import me.nulldoubt.advancedtilemaps.TileGrid.CompressionStrategy;
+import me.nulldoubt.advancedtilemaps.TileLayer.RenderStrategy;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * The native grid and layer format, little-endian: the magic "ATML", a version and the section count, followed by sections
+ * of (id, length, payload, CRC32C of the id, length and payload). Grids write a header and their tiles, layers add their
+ * settings and channels. Tiles are stored bit-packed chunk by chunk, one word per chunk row, and are moved between the
+ * chunks and direct buffers without intermediate arrays. Sections are read into one reused direct buffer, so loading a
+ * grid is mostly the checksum and a copy per chunk. Layer files read as grids skip the layer sections.
+ */
+final class LayerFile {
+
+	static final int MAGIC = 'A' | 'T' << 8 | 'M' << 16 | 'L' << 24;
+	static final short VERSION = 1;
+
+	private static final int HEADER = 1;
+	private static final int TILES = 2;
+	private static final int CHANNELS = 3;
+	private static final int LAYER = 4;
+
+	/* Chunk tags of the tile section, full and raw chunks being followed by none and one word per valid row. */
+	private static final byte EMPTY = 0;
+	private static final byte FULL = 1;
+	private static final byte RAW = 2;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private LayerFile() {}
+
+	/* Whether the first bytes are the magic, for telling the format apart from legacy UBJson. */
+	static boolean isLayerFile(final byte[] start) {
+		return start.length >= 4 && (start[0] & 0xFF | (start[1] & 0xFF) << 8 | (start[2] & 0xFF) << 16 | (start[3] & 0xFF) << 24) == MAGIC;
+	}
+
+	/* Consumes the magic if the stream starts with it, leaving the stream untouched otherwise. */
+	static boolean skipMagic(final BufferedInputStream in) throws IOException {
+		in.mark(Integer.BYTES);
+		if (isLayerFile(in.readNBytes(Integer.BYTES)))
+			return true;
+		in.reset();
+		return false;
+	}
+
+	/* A channel of the file positioned after the magic, or null for legacy UBJson and files not on the file system. */
+	static FileChannel open(final FileHandle fileHandle) throws IOException {
+		if (fileHandle.type() == FileType.Classpath || !fileHandle.file().exists())
+			return null;
+		final FileChannel channel = FileChannel.open(fileHandle.file().toPath(), StandardOpenOption.READ);
+		boolean layerFile = false;
+		try {
+			final ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+			readFully(channel, magic);
+			layerFile = isLayerFile(magic.array());
+		} catch (EOFException e) {
+			// Too short for the magic, left to the UBJson reader.
+		} finally {
+			if (!layerFile)
+				channel.close();
+		}
+		return layerFile ? channel : null;
+	}
+
+	static void write(final TileGrid tileGrid, final FileHandle fileHandle) throws IOException {
+		if (fileHandle.type() == FileType.Classpath || fileHandle.type() == FileType.Internal)
+			throw new GdxRuntimeException("Cannot write to a " + fileHandle.type() + " file: " + fileHandle);
+		fileHandle.parent().mkdirs();
+		try (final FileChannel channel = FileChannel.open(fileHandle.file().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(tileGrid, channel);
+		}
+	}
+
+	static void write(final TileGrid tileGrid, final WritableByteChannel channel) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		final CRC32C crc = new CRC32C();
+		final TileLayer tileLayer = (tileGrid instanceof TileLayer) ? (TileLayer) tileGrid : null;
+		final boolean channels = tileLayer != null && tileLayer.getChannelCount() > 0;
+		buffer.putInt(MAGIC).putShort(VERSION).putShort((short) (2 + (tileLayer != null ? 1 : 0) + (channels ? 1 : 0)));
+
+		begin(buffer, channel, crc, HEADER, Integer.BYTES * 2 + 1);
+		buffer
+			.putInt(tileGrid.getTilesX())
+			.putInt(tileGrid.getTilesY())
+			.put((tileGrid.getCompressionStrategy() instanceof CompressionStrategy) ? ((CompressionStrategy) tileGrid.getCompressionStrategy()).index : -1);
+		end(buffer, channel, crc);
+
+		if (tileLayer != null) {
+			begin(buffer, channel, crc, LAYER, Float.BYTES * 4 + 1);
+			buffer
+				.putFloat(tileLayer.getTileWidth())
+				.putFloat(tileLayer.getTileHeight())
+				.putFloat(tileLayer.getUnitScale())
+				.putFloat(tileLayer.getOverlayScale())
+				.put((tileLayer.getRenderStrategy() instanceof RenderStrategy) ? ((RenderStrategy) tileLayer.getRenderStrategy()).index : -1);
+			end(buffer, channel, crc);
+		}
+
+		final int chunksX = tileGrid.getChunksX(), chunksY = tileGrid.getChunksY();
+		int length = chunksX * chunksY;
+		for (int chunkY = 0; chunkY < chunksY; chunkY++)
+			for (int chunkX = 0; chunkX < chunksX; chunkX++)
+				if (tag(tileGrid, chunkX, chunkY) == RAW)
+					length += rows(tileGrid, chunkY) * Long.BYTES;
+		begin(buffer, channel, crc, TILES, length);
+		for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+			final int y1 = chunkY << CHUNK_SHIFT, rows = rows(tileGrid, chunkY);
+			for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+				final byte tag = tag(tileGrid, chunkX, chunkY);
+				ensure(buffer, channel, crc, 1 + ((tag == RAW) ? rows * Long.BYTES : 0));
+				buffer.put(tag);
+				if (tag == RAW)
+					for (int y = y1; y < y1 + rows; y++)
+						buffer.putLong(tileGrid.tileWord(chunkX, y));
+			}
+		}
+		end(buffer, channel, crc);
+
+		if (channels)
+			writeChannels(tileLayer, buffer, channel, crc);
+	}
+
+	private static void writeChannels(final TileLayer tileLayer, final ByteBuffer buffer, final WritableByteChannel channel, final CRC32C crc) throws IOException {
+		final int chunksX = tileLayer.getChunksX(), chunksY = tileLayer.getChunksY();
+		int length = Integer.BYTES;
+		for (int i = 0; i < tileLayer.getChannelCount(); i++) {
+			final TileChannel tileChannel = tileLayer.getChannel(i);
+			length += Short.BYTES + tileChannel.getName().getBytes(StandardCharsets.UTF_8).length + 1 + Integer.BYTES;
+			length += tileChannel.getSize() * (Integer.BYTES + bytes(tileChannel.getType()));
+		}
+		begin(buffer, channel, crc, CHANNELS, length);
+		buffer.putInt(tileLayer.getChannelCount());
+		for (int i = 0; i < tileLayer.getChannelCount(); i++) {
+			final TileChannel tileChannel = tileLayer.getChannel(i);
+			final byte[] name = tileChannel.getName().getBytes(StandardCharsets.UTF_8);
+			final int bytes = bytes(tileChannel.getType());
+			ensure(buffer, channel, crc, Short.BYTES + name.length + 1 + Integer.BYTES);
+			buffer.putShort((short) name.length).put(name).put(tileChannel.getType().index).putInt(tileChannel.getSize());
+			for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+				for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+					final int[] keys = tileChannel.chunkKeys(chunkX + chunkY * chunksX);
+					if (keys == null)
+						continue;
+					final long[] values = tileChannel.chunkValues(chunkX + chunkY * chunksX);
+					for (int slot = 0; slot < keys.length; slot++) {
+						if (keys[slot] == 0)
+							continue;
+						final int key = keys[slot] - 1;
+						final int x = (chunkX << CHUNK_SHIFT) + (key & (CHUNK_SIZE - 1)), y = (chunkY << CHUNK_SHIFT) + (key >>> CHUNK_SHIFT);
+						ensure(buffer, channel, crc, Integer.BYTES + bytes);
+						buffer.putInt(x + y * tileLayer.getTilesX());
+						if (bytes == Long.BYTES)
+							buffer.putLong(values[slot]);
+						else
+							buffer.putInt((int) values[slot]);
+					}
+				}
+			}
+		}
+		end(buffer, channel, crc);
+	}
+
+	/* Reads a grid after the magic, which the caller has already consumed. */
+	static TileGrid readGrid(final ReadableByteChannel channel) throws IOException {
+		return read(channel, false);
+	}
+
+	/* Reads a layer after the magic, which the caller has already consumed. */
+	static TileLayer readLayer(final ReadableByteChannel channel) throws IOException {
+		return (TileLayer) read(channel, true);
+	}
+
+	private static TileGrid read(final ReadableByteChannel channel, final boolean layer) throws IOException {
+		final ByteBuffer head = ByteBuffer.allocateDirect(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		head.limit(Short.BYTES * 2);
+		readFully(channel, head);
+		final short version = head.getShort(0);
+		final int sections = head.getShort(2);
+		if (version < 1 || version > VERSION)
+			throw new GdxRuntimeException("Unsupported tile layer version " + version + ", expected at most " + VERSION);
+
+		TileGrid tileGrid = null;
+		int tilesX = -1, tilesY = -1;
+		byte compressionStrategy = -1;
+		ByteBuffer section = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		final CRC32C crc = new CRC32C();
+		for (int i = 0; i < sections; i++) {
+			head.clear();
+			readFully(channel, head);
+			final int id = head.getInt(0);
+			final int length = head.getInt(4);
+			crc.reset();
+			head.flip();
+			crc.update(head);
+			section = section(channel, section, length);
+			crc.update(section);
+			section.rewind();
+			head.clear().limit(Integer.BYTES);
+			readFully(channel, head);
+			if ((int) crc.getValue() != head.getInt(0))
+				throw new GdxRuntimeException("Corrupt tile layer, checksum mismatch in section " + id);
+
+			if (id == HEADER) {
+				tilesX = section.getInt();
+				tilesY = section.getInt();
+				compressionStrategy = section.get();
+				if (!layer)
+					tileGrid = grid(new TileGrid(tilesX, tilesY, false), compressionStrategy);
+			} else if (tilesX == -1) {
+				throw new GdxRuntimeException("Corrupt tile layer, section " + id + " precedes the header");
+			} else if (id == LAYER) {
+				if (layer) {
+					final TileLayer tileLayer = new TileLayer(tilesX, tilesY, section.getFloat(), section.getFloat(), section.getFloat(), false);
+					tileLayer.setOverlayScale(section.getFloat());
+					final byte renderStrategy = section.get();
+					if (renderStrategy != -1)
+						tileLayer.setRenderStrategy(RenderStrategy.fromIndex(renderStrategy));
+					tileGrid = grid(tileLayer, compressionStrategy);
+				}
+			} else if (tileGrid == null) {
+				throw new GdxRuntimeException("Not a tile layer, but a tile grid without layer settings");
+			} else if (id == TILES) {
+				readTiles(tileGrid, section);
+			} else if (id == CHANNELS && layer) {
+				readChannels((TileLayer) tileGrid, section);
+			}
+			// Sections added by later versions, and those of layers when reading a grid, are skipped.
+		}
+		if (tileGrid == null)
+			throw new GdxRuntimeException((tilesX == -1) ? "Corrupt tile layer, header missing" : "Not a tile layer, but a tile grid without layer settings");
+		// Trailing bytes mean a damaged section count, which would otherwise drop sections silently.
+		head.clear().limit(1);
+		if (channel.read(head) > 0)
+			throw new GdxRuntimeException("Corrupt tile layer, trailing data after " + sections + " sections");
+		return tileGrid;
+	}
+
+	private static TileGrid grid(final TileGrid tileGrid, final byte compressionStrategy) {
+		if (compressionStrategy != -1)
+			tileGrid.setCompressionStrategy(CompressionStrategy.fromIndex(compressionStrategy));
+		return tileGrid;
+	}
+
+	private static void readTiles(final TileGrid tileGrid, final ByteBuffer section) {
+		final int chunksX = tileGrid.getChunksX(), chunksY = tileGrid.getChunksY();
+		for (int chunk = 0; chunk < chunksX * chunksY; chunk++) {
+			final byte tag = section.get();
+			if (tag == FULL)
+				tileGrid.setChunk(chunk, true);
+			else if (tag == RAW)
+				tileGrid.setChunk(chunk, section, rows(tileGrid, chunk / chunksX));
+			else if (tag != EMPTY)
+				throw new GdxRuntimeException("Corrupt tile layer, unknown chunk tag " + tag);
+		}
+		tileGrid.countFilled();
+		final boolean[] changed = new boolean[chunksX * chunksY];
+		Arrays.fill(changed, true);
+		tileGrid.updateChunks(changed);
+	}
+
+	private static void readChannels(final TileLayer tileLayer, final ByteBuffer section) {
+		final int tilesX = tileLayer.getTilesX();
+		final int count = section.getInt();
+		for (int i = 0; i < count; i++) {
+			final byte[] name = new byte[section.getShort()];
+			section.get(name);
+			final TileChannel.Type type = TileChannel.Type.fromIndex(section.get());
+			final TileChannel channel = tileLayer.addChannel(new String(name, StandardCharsets.UTF_8), type);
+			final int size = section.getInt();
+			for (int entry = 0; entry < size; entry++) {
+				final int cell = section.getInt();
+				final int x = cell % tilesX, y = cell / tilesX;
+				if (type == TileChannel.Type.INT)
+					channel.setInt(x, y, section.getInt());
+				else if (type == TileChannel.Type.FLOAT)
+					channel.setFloat(x, y, section.getFloat());
+				else
+					channel.setLong(x, y, section.getLong());
+			}
+		}
+	}
+
+	/* Reads the payload of a section into the buffer, or into a larger one if it doesn't fit. */
+	private static ByteBuffer section(final ReadableByteChannel channel, ByteBuffer buffer, final int length) throws IOException {
+		if (length < 0)
+			throw new GdxRuntimeException("Corrupt tile layer, negative section length");
+		if (buffer.capacity() < length)
+			buffer = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.clear().limit(length);
+		readFully(channel, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	static void readFully(final ReadableByteChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) == -1)
+				throw new EOFException("Unexpected end of tile layer");
+	}
+
+	/* Sections are written through the buffer, the checksum covering the id, the length and everything put until end. */
+	private static void begin(final ByteBuffer buffer, final WritableByteChannel channel, final CRC32C crc, final int id, final int length) throws IOException {
+		flush(buffer, channel, null);
+		crc.reset();
+		buffer.putInt(id).putInt(length);
+	}
+
+	private static void end(final ByteBuffer buffer, final WritableByteChannel channel, final CRC32C crc) throws IOException {
+		flush(buffer, channel, crc);
+		buffer.putInt((int) crc.getValue());
+		flush(buffer, channel, null);
+	}
+
+	private static void ensure(final ByteBuffer buffer, final WritableByteChannel channel, final CRC32C crc, final int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush(buffer, channel, crc);
+	}
+
+	private static void flush(final ByteBuffer buffer, final WritableByteChannel channel, final CRC32C crc) throws IOException {
+		buffer.flip();
+		if (crc != null) {
+			crc.update(buffer);
+			buffer.rewind();
+		}
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static byte tag(final TileGrid tileGrid, final int chunkX, final int chunkY) {
+		return tileGrid.isChunkEmpty(chunkX, chunkY) ? EMPTY : tileGrid.isChunkFull(chunkX, chunkY) ? FULL : RAW;
+	}
+
+	private static int rows(final TileGrid tileGrid, final int chunkY) {
+		return Math.min(CHUNK_SIZE, tileGrid.getTilesY() - (chunkY << CHUNK_SHIFT));
+	}
+
+	private static int bytes(final TileChannel.Type type) {
+		return (type == TileChannel.Type.LONG) ? Long.BYTES : Integer.BYTES;
+	}
+
+}
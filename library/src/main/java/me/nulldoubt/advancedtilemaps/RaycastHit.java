@@ -0,0 +1,59 @@
+package me.nulldoubt.advancedtilemaps;
+
+/* The first filled tile along a ray, re-used across raycasts to avoid allocating. */
+public class RaycastHit {
+
+	private int tileX;
+	private int tileY;
+	private float distance;
+	private float pointX;
+	private float pointY;
+	private int normalX;
+	private int normalY;
+
+	public int getTileX() {
+		return tileX;
+	}
+
+	public int getTileY() {
+		return tileY;
+	}
+
+	/* In the units of the ray, world units for TileLayer#raycastWorld. */
+	public float getDistance() {
+		return distance;
+	}
+
+	public float getPointX() {
+		return pointX;
+	}
+
+	public float getPointY() {
+		return pointY;
+	}
+
+	/* The side of the tile the ray entered through, (0, 0) if the ray started inside of it. */
+	public int getNormalX() {
+		return normalX;
+	}
+
+	public int getNormalY() {
+		return normalY;
+	}
+
+	void set(final int tileX, final int tileY, final float distance, final float pointX, final float pointY, final int normalX, final int normalY) {
+		this.tileX = tileX;
+		this.tileY = tileY;
+		this.distance = distance;
+		this.pointX = pointX;
+		this.pointY = pointY;
+		this.normalX = normalX;
+		this.normalY = normalY;
+	}
+
+	void setPoint(final float pointX, final float pointY) {
+		this.pointX = pointX;
+		this.pointY = pointY;
+	}
+
+}
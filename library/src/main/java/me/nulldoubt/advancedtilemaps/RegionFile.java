@@ -0,0 +1,79 @@
+package me.nulldoubt.advancedtilemaps;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/* Stores the chunks of a square region in a single file, located through a table of (offset, length, capacity). */
+final class RegionFile implements Closeable {
+
+	static final int REGION_SHIFT = 5;
+	static final int REGION_SIZE = 1 << REGION_SHIFT;
+	static final int REGION_MASK = REGION_SIZE - 1;
+
+	private static final int SLOTS = REGION_SIZE * REGION_SIZE;
+	private static final int HEADER_SIZE = SLOTS * 3 * Integer.BYTES;
+
+	private final RandomAccessFile file;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final int[] capacities;
+
+	RegionFile(final File file) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		offsets = new int[SLOTS];
+		lengths = new int[SLOTS];
+		capacities = new int[SLOTS];
+		if (this.file.length() < HEADER_SIZE) {
+			this.file.setLength(HEADER_SIZE);
+			return;
+		}
+
+		final byte[] header = new byte[HEADER_SIZE];
+		this.file.seek(0);
+		this.file.readFully(header);
+		final ByteBuffer buffer = ByteBuffer.wrap(header);
+		for (int slot = 0; slot < SLOTS; slot++) {
+			offsets[slot] = buffer.getInt();
+			lengths[slot] = buffer.getInt();
+			capacities[slot] = buffer.getInt();
+		}
+	}
+
+	/* Returns null for chunks that were never written. */
+	synchronized byte[] read(final int chunkX, final int chunkY) throws IOException {
+		final int slot = slot(chunkX, chunkY);
+		if (offsets[slot] == 0)
+			return null;
+		final byte[] data = new byte[lengths[slot]];
+		file.seek(offsets[slot]);
+		file.readFully(data);
+		return data;
+	}
+
+	/* Re-uses the chunk's previous space if the data fits, appends it otherwise. */
+	synchronized void write(final int chunkX, final int chunkY, final byte[] data) throws IOException {
+		final int slot = slot(chunkX, chunkY);
+		if (offsets[slot] == 0 || capacities[slot] < data.length) {
+			offsets[slot] = (int) file.length();
+			capacities[slot] = data.length;
+		}
+		lengths[slot] = data.length;
+		file.seek(offsets[slot]);
+		file.write(data);
+
+		file.seek((long) slot * 3 * Integer.BYTES);
+		file.writeInt(offsets[slot]);
+		file.writeInt(lengths[slot]);
+		file.writeInt(capacities[slot]);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+	private static int slot(final int chunkX, final int chunkY) {
+		return (chunkX & REGION_MASK) + (chunkY & REGION_MASK) * REGION_SIZE;
+	}
+
+}
@@ -0,0 +1,206 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Rectangle;
+
+import java.util.Arrays;
+
+/*
+ * A single grid holding one terrain id per tile (0 being empty), replacing a stack of one TileLayer per terrain.
+ * Terrains are drawn in ascending id order, so higher ids are drawn on top of lower ones.
+ * Tile sets of all terrains should live on the same texture to keep the batch from flushing.
+ */
+public class TerrainLayer {
+
+	public static final int MAX_TERRAINS = 255;
+
+	private final TextureRegion[][] tileSets;
+	private final TileView view;
+
+	private final int tilesX;
+	private final int tilesY;
+
+	private final float tileWidth;
+	private final float tileHeight;
+
+	private final float offsetX;
+	private final float offsetY;
+
+	private float unitScale;
+
+	private final int terrains;
+	private final byte[] tiles;
+
+	public TerrainLayer(int tilesX, int tilesY, float tileWidth, float tileHeight, float unitScale, int terrains) {
+		if (terrains < 1 || terrains > MAX_TERRAINS)
+			throw new IllegalArgumentException("Terrain count must be within 1 and " + MAX_TERRAINS + ": " + terrains);
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.unitScale = unitScale;
+		this.terrains = terrains;
+
+		offsetX = tileWidth / 2f;
+		offsetY = tileHeight / 2f;
+
+		tiles = new byte[tilesX * tilesY];
+		tileSets = new TextureRegion[terrains + 1][];
+		view = new TileView("default");
+	}
+
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	public float getTileWidth() {
+		return tileWidth;
+	}
+
+	public float getTileHeight() {
+		return tileHeight;
+	}
+
+	public float getUnitScale() {
+		return unitScale;
+	}
+
+	public void setUnitScale(float unitScale) {
+		this.unitScale = unitScale;
+	}
+
+	public int getTerrains() {
+		return terrains;
+	}
+
+	public boolean hasTileSet(final int terrain) {
+		return terrain > 0 && terrain <= terrains && tileSets[terrain] != null;
+	}
+
+	public void setTileSet(final int terrain, final TextureRegion textureRegion) {
+		if (terrain < 1 || terrain > terrains)
+			throw new IllegalArgumentException("Unknown terrain: " + terrain);
+		if (tileSets[terrain] == null)
+			tileSets[terrain] = new TextureRegion[16];
+		TileLayer.createTileSet(textureRegion, tileWidth, tileHeight, tileSets[terrain]);
+	}
+
+	public Rectangle getViewBounds() {
+		return view.getBounds();
+	}
+
+	/* The view set by setView and rendered by render(Batch). */
+	public TileView getView() {
+		return view;
+	}
+
+	/* Of the last render through the layer's own view. */
+	public int getTilesRendered() {
+		return view.getTilesRendered();
+	}
+
+	/* Of the last render through the layer's own view. */
+	public int getQuadsRendered() {
+		return view.getQuadsRendered();
+	}
+
+	public void fill(final int terrain) {
+		checkTerrain(terrain);
+		Arrays.fill(tiles, (byte) terrain);
+	}
+
+	public boolean isOutOfBounds(final int x, final int y) {
+		return (x < 0 || y < 0 || x >= tilesX || y >= tilesY);
+	}
+
+	public int terrainAt(final int x, final int y) {
+		if (isOutOfBounds(x, y))
+			return 0;
+		return tiles[x + y * tilesX] & 0xFF;
+	}
+
+	public void terrainAt(final int x, final int y, final int terrain) {
+		checkTerrain(terrain);
+		if (isOutOfBounds(x, y))
+			return;
+		tiles[x + y * tilesX] = (byte) terrain;
+	}
+
+	private void checkTerrain(final int terrain) {
+		if (terrain < 0 || terrain > terrains)
+			throw new IllegalArgumentException("Unknown terrain: " + terrain);
+	}
+
+	/* May be called before rendering! */
+	public void setView(OrthographicCamera camera) {
+		view.set(camera);
+	}
+
+	/* May be called before rendering! */
+	public void setView(float x, float y, float width, float height) {
+		view.set(x, y, width, height);
+	}
+
+	public void render(final Batch batch) {
+		view.resetCounts();
+		render(batch, view);
+	}
+
+	/* Renders through the given view instead of the layer's own, adding to the view's counts. */
+	public void render(final Batch batch, final TileView view) {
+		final float tileWidth = this.tileWidth * unitScale;
+		final float tileHeight = this.tileHeight * unitScale;
+		final int[] cells = view.range(tilesX, tilesY, tileWidth, tileHeight, 0f, 0f, offsetX, offsetY).cells;
+		final int col1 = cells[0], col2 = cells[1], row1 = cells[2], row2 = cells[3];
+		final int[] corners = new int[4];
+		int tilesRendered = 0;
+		int quadsRendered = 0;
+
+		// Corner bits follow TileLayer: (x - 1, y), (x, y), (x - 1, y - 1), (x, y - 1) from the highest bit down.
+		for (int y = row1; y < row2; y++) {
+			final int row = y * tilesX;
+			final int below = row - tilesX;
+			for (int x = col1; x < col2; x++) {
+				corners[1] = tiles[row + x] & 0xFF;
+				corners[0] = x > 0 ? tiles[row + x - 1] & 0xFF : 0;
+				corners[3] = y > 0 ? tiles[below + x] & 0xFF : 0;
+				corners[2] = (x > 0 && y > 0) ? tiles[below + x - 1] & 0xFF : 0;
+				if (corners[1] != 0)
+					tilesRendered++;
+				if ((corners[0] | corners[1] | corners[2] | corners[3]) == 0)
+					continue;
+
+				final float drawX = (offsetX + x * this.tileWidth) * unitScale;
+				final float drawY = (offsetY + y * this.tileHeight) * unitScale;
+				int remaining = 0b1111;
+				while (remaining != 0) {
+					int terrain = Integer.MAX_VALUE;
+					for (int i = 0; i < 4; i++)
+						if ((remaining & (1 << (3 - i))) != 0 && corners[i] < terrain)
+							terrain = corners[i];
+
+					int bitmask = 0;
+					for (int i = 0; i < 4; i++)
+						if (corners[i] == terrain)
+							bitmask |= 1 << (3 - i);
+					remaining &= ~bitmask;
+
+					final TextureRegion[] tileSet = tileSets[terrain];
+					if (terrain == 0 || tileSet == null)
+						continue;
+					quadsRendered++;
+					batch.draw(tileSet[TileLayer.getAutoTileIndex(bitmask)], drawX, drawY, tileWidth, tileHeight);
+				}
+			}
+		}
+		view.tilesRendered += tilesRendered;
+		view.quadsRendered += quadsRendered;
+	}
+
+}
@@ -0,0 +1,220 @@
+package me.nulldoubt.advancedtilemaps;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_MASK;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Steps a cellular automaton over the tiles of a grid, filled tiles being alive and tiles out of bounds dead.
+ * The next generation is computed 64 tiles at a time into a back buffer by bands of rows in parallel, then written
+ * back, re-computing the masks of changed chunks only.
+ */
+public class TileAutomaton {
+
+	private final TileGrid tileGrid;
+	private final long[] next;
+	private final boolean[] changed;
+	private IAutomatonRule rule;
+	private long dead;
+	private long generation;
+
+	public TileAutomaton(final TileGrid tileGrid, final IAutomatonRule rule) {
+		this.tileGrid = tileGrid;
+		next = new long[tileGrid.getTilesY() * tileGrid.getChunksX()];
+		changed = new boolean[tileGrid.getChunksX() * tileGrid.getChunksY()];
+		setRule(rule);
+	}
+
+	/* Life-like rule in B/S notation, e.g. "B3/S23" for Conway's Game of Life. */
+	public TileAutomaton(final TileGrid tileGrid, final String rule) {
+		this(tileGrid, lifeLike(rule));
+	}
+
+	public TileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	public IAutomatonRule getRule() {
+		return rule;
+	}
+
+	public void setRule(final IAutomatonRule rule) {
+		if (rule == null)
+			throw new IllegalArgumentException("Rule cannot be null");
+		this.rule = rule;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	/* Advances generations generations, returning the amount of tiles changed by the last one. */
+	public int step(final int generations) {
+		int changedTiles = 0;
+		for (int i = 0; i < generations; i++)
+			changedTiles = step();
+		return changedTiles;
+	}
+
+	/* Advances one generation and returns the amount of tiles changed. */
+	public int step() {
+		// Words without living tiles around them are common and all share one result.
+		dead = rule.next(new long[9]);
+		if (tileGrid.allowsConcurrentAccess())
+			ForkJoinPool.commonPool().invoke(new StepTask(this, 0, tileGrid.getTilesY()));
+		else
+			computeRows(0, tileGrid.getTilesY(), new long[9]);
+		generation++;
+		return apply();
+	}
+
+	private void computeRows(final int from, final int to, final long[] neighborhood) {
+		final int chunksX = tileGrid.getChunksX();
+		for (int y = from; y < to; y++) {
+			for (int wordX = 0; wordX < chunksX; wordX++) {
+				boolean empty = true;
+				for (int dy = -1; dy <= 1; dy++) {
+					final long row = tileGrid.tileWord(wordX, y + dy);
+					final long west = (row << 1) | (tileGrid.tileWord(wordX - 1, y + dy) >>> 63);
+					final long east = (row >>> 1) | (tileGrid.tileWord(wordX + 1, y + dy) << 63);
+					neighborhood[(dy + 1) * 3] = west;
+					neighborhood[(dy + 1) * 3 + 1] = row;
+					neighborhood[(dy + 1) * 3 + 2] = east;
+					empty &= (west | row | east) == 0L;
+				}
+				next[y * chunksX + wordX] = (empty ? dead : rule.next(neighborhood)) & tileGrid.validMask(wordX);
+			}
+		}
+	}
+
+	/* Writes the back buffer into the grid chunk by chunk, only un-sharing and re-masking chunks that changed. */
+	private int apply() {
+		final int chunksX = tileGrid.getChunksX();
+		final int tilesY = tileGrid.getTilesY();
+		int changedTiles = 0;
+		boolean any = false;
+		for (int chunk = 0; chunk < changed.length; chunk++) {
+			changed[chunk] = false;
+			final int wordX = chunk % chunksX;
+			final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+			final int y2 = Math.min(tilesY, y1 + CHUNK_SIZE);
+			long[] rows = tileGrid.tileChunk(chunk);
+			for (int y = y1; y < y2; y++) {
+				final long word = next[y * chunksX + wordX];
+				if (rows[y & CHUNK_MASK] == word)
+					continue;
+				if (!changed[chunk]) {
+					rows = tileGrid.writableChunk(chunk);
+					changed[chunk] = true;
+				}
+				changedTiles += Long.bitCount(rows[y & CHUNK_MASK] ^ word);
+				tileGrid.setWord(rows, chunk, y & CHUNK_MASK, word);
+			}
+			any |= changed[chunk];
+		}
+		if (any)
+			tileGrid.updateChunks(changed);
+		return changedTiles;
+	}
+
+	/* A Life-like rule, the n-th bit of birth and survival standing for n living neighbors. */
+	public static IAutomatonRule lifeLike(final int birth, final int survival) {
+		if ((birth | survival) >>> 9 != 0)
+			throw new IllegalArgumentException("Neighbor counts range from 0 to 8");
+		return neighborhood -> {
+			// Counts the 8 neighbors of 64 tiles at once, one bit of the count per word.
+			long count0 = 0L, count1 = 0L, count2 = 0L, count3 = 0L;
+			for (int i = 0; i < 9; i++) {
+				if (i == 4)
+					continue;
+				long carry = neighborhood[i];
+				final long sum0 = count0 ^ carry;
+				carry &= count0;
+				count0 = sum0;
+				final long sum1 = count1 ^ carry;
+				carry &= count1;
+				count1 = sum1;
+				final long sum2 = count2 ^ carry;
+				carry &= count2;
+				count2 = sum2;
+				count3 |= carry;
+			}
+			final long alive = neighborhood[4];
+			long result = 0L;
+			for (int count = 0; count <= 8; count++) {
+				final int bit = 1 << count;
+				if (((birth | survival) & bit) == 0)
+					continue;
+				final long matches = ((count & 1) != 0 ? count0 : ~count0)
+					& ((count & 2) != 0 ? count1 : ~count1)
+					& ((count & 4) != 0 ? count2 : ~count2)
+					& ((count & 8) != 0 ? count3 : ~count3);
+				if ((birth & bit) != 0)
+					result |= matches & ~alive;
+				if ((survival & bit) != 0)
+					result |= matches & alive;
+			}
+			return result;
+		};
+	}
+
+	/* A Life-like rule in B/S notation, e.g. "B3/S23". */
+	public static IAutomatonRule lifeLike(final String rule) {
+		final String[] parts = rule.toUpperCase().split("/");
+		if (parts.length != 2 || !parts[0].startsWith("B") || !parts[1].startsWith("S"))
+			throw new IllegalArgumentException("Expected a rule like B3/S23, got " + rule);
+		return lifeLike(counts(parts[0], rule), counts(parts[1], rule));
+	}
+
+	private static int counts(final String part, final String rule) {
+		int counts = 0;
+		for (int i = 1; i < part.length(); i++) {
+			final int count = part.charAt(i) - '0';
+			if (count < 0 || count > 8)
+				throw new IllegalArgumentException("Expected a rule like B3/S23, got " + rule);
+			counts |= 1 << count;
+		}
+		return counts;
+	}
+
+	private static class StepTask extends RecursiveAction {
+
+		private static final int THRESHOLD = 64;
+
+		private final TileAutomaton automaton;
+		private final int from;
+		private final int to;
+
+		private StepTask(TileAutomaton automaton, int from, int to) {
+			this.automaton = automaton;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new StepTask(automaton, from, middle), new StepTask(automaton, middle, to));
+				return;
+			}
+			automaton.computeRows(from, to, new long[9]);
+		}
+
+	}
+
+	/*
+	 * Computes the next state of 64 tiles of a row at once. neighborhood[(dy + 1) * 3 + dx + 1] holds the state of the
+	 * tiles at an offset of (dx, dy) to them, bit i standing for the i-th tile, so neighborhood[4] is their current state.
+	 * Called concurrently, so implementations must not keep state between calls.
+	 */
+	public interface IAutomatonRule {
+
+		long next(long[] neighborhood);
+
+	}
+
+}
@@ -0,0 +1,374 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_MASK;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * A sparse per-tile attribute, e.g. durability, ownership or moisture, held by filled tiles of a layer only. Values are
+ * kept in one primitive open-addressing map per chunk, keyed by the cell index within the chunk, so nothing is boxed and
+ * iterating a chunk walks two small arrays. Values of tiles being cleared are dropped by the edit clearing them.
+ * See TileLayer#addChannel.
+ */
+public class TileChannel {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private final TileLayer tileLayer;
+	private final String name;
+	private final Type type;
+
+	/* Per chunk, cell index within the chunk + 1 (0 marking free slots) and value bits, null until a value is set. */
+	private final int[][] keys;
+	private final long[][] values;
+	private final int[] sizes;
+	private int size;
+
+	/* Chunks whose maps are also referenced by a copy, cloned before they are written to. */
+	private boolean[] shared;
+
+	private final IntArray removed = new IntArray();
+
+	TileChannel(final TileLayer tileLayer, final String name, final Type type) {
+		this.tileLayer = tileLayer;
+		this.name = name;
+		this.type = type;
+		final int chunks = tileLayer.getChunksX() * tileLayer.getChunksY();
+		keys = new int[chunks][];
+		values = new long[chunks][];
+		sizes = new int[chunks];
+	}
+
+	/* A copy attached to another layer of the same size. */
+	TileChannel(final TileLayer tileLayer, final TileChannel channel) {
+		this.tileLayer = tileLayer;
+		name = channel.name;
+		type = channel.type;
+		keys = channel.keys.clone();
+		values = channel.values.clone();
+		if (channel.shared == null)
+			channel.shared = new boolean[keys.length];
+		for (int chunk = 0; chunk < keys.length; chunk++)
+			channel.shared[chunk] = (keys[chunk] != null);
+		shared = channel.shared.clone();
+		sizes = channel.sizes.clone();
+		size = channel.size;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/* Amount of tiles holding a value. */
+	public int getSize() {
+		return size;
+	}
+
+	public int getChunkSize(final int chunkX, final int chunkY) {
+		return sizes[chunkX + chunkY * tileLayer.getChunksX()];
+	}
+
+	public boolean has(final int x, final int y) {
+		return !tileLayer.isOutOfBounds(x, y) && find(chunk(x, y), local(x, y)) != -1;
+	}
+
+	public int getInt(final int x, final int y, final int defaultValue) {
+		checkType(Type.INT);
+		return (int) get(x, y, defaultValue);
+	}
+
+	public float getFloat(final int x, final int y, final float defaultValue) {
+		checkType(Type.FLOAT);
+		return Float.intBitsToFloat((int) get(x, y, Float.floatToRawIntBits(defaultValue)));
+	}
+
+	public long getLong(final int x, final int y, final long defaultValue) {
+		checkType(Type.LONG);
+		return get(x, y, defaultValue);
+	}
+
+	/* Only filled tiles hold values, setting one on an empty tile does nothing and returns false. */
+	public boolean setInt(final int x, final int y, final int value) {
+		checkType(Type.INT);
+		return put(x, y, value);
+	}
+
+	public boolean setFloat(final int x, final int y, final float value) {
+		checkType(Type.FLOAT);
+		return put(x, y, Float.floatToRawIntBits(value));
+	}
+
+	public boolean setLong(final int x, final int y, final long value) {
+		checkType(Type.LONG);
+		return put(x, y, value);
+	}
+
+	public boolean remove(final int x, final int y) {
+		tileLayer.checkWritable();
+		if (tileLayer.isOutOfBounds(x, y))
+			return false;
+		final int chunk = chunk(x, y);
+		final int slot = find(chunk, local(x, y));
+		if (slot == -1)
+			return false;
+		removeSlot(chunk, slot);
+		return true;
+	}
+
+	public void clear() {
+		tileLayer.checkWritable();
+		Arrays.fill(keys, null);
+		Arrays.fill(values, null);
+		Arrays.fill(sizes, 0);
+		size = 0;
+	}
+
+	/* Visits every value chunk by chunk, see IChannelVisitor. Values must not be set or removed while visiting. */
+	public void forEach(final IChannelVisitor visitor) {
+		final int chunksX = tileLayer.getChunksX();
+		for (int chunk = 0; chunk < keys.length; chunk++)
+			if (sizes[chunk] > 0)
+				forEach(chunk % chunksX, chunk / chunksX, visitor);
+	}
+
+	public void forEach(final int chunkX, final int chunkY, final IChannelVisitor visitor) {
+		final int chunk = chunkX + chunkY * tileLayer.getChunksX();
+		final int[] keys = this.keys[chunk];
+		if (keys == null)
+			return;
+		final long[] values = this.values[chunk];
+		final int x1 = chunkX << CHUNK_SHIFT, y1 = chunkY << CHUNK_SHIFT;
+		for (int slot = 0; slot < keys.length; slot++) {
+			final int key = keys[slot] - 1;
+			if (key != -1)
+				visitor.visit(x1 + (key & CHUNK_MASK), y1 + (key >>> CHUNK_SHIFT), values[slot]);
+		}
+	}
+
+	/* Cell indices within the chunk + 1 of its slots, 0 marking free ones, null without values. */
+	int[] chunkKeys(final int chunk) {
+		return keys[chunk];
+	}
+
+	long[] chunkValues(final int chunk) {
+		return values[chunk];
+	}
+
+	/* Drops the values of the now empty tiles in [x1, x2) x [y1, y2). */
+	void tilesChanged(final int x1, final int y1, final int x2, final int y2) {
+		if (size == 0)
+			return;
+		if (x2 - x1 == 1 && y2 - y1 == 1) {
+			if (!tileLayer.tileAt(x1, y1))
+				remove(x1, y1);
+			return;
+		}
+		final int chunksX = tileLayer.getChunksX();
+		final int chunkX2 = (Math.min(tileLayer.getTilesX(), x2) - 1) >> CHUNK_SHIFT;
+		final int chunkY2 = (Math.min(tileLayer.getTilesY(), y2) - 1) >> CHUNK_SHIFT;
+		for (int chunkY = Math.max(0, y1) >> CHUNK_SHIFT; chunkY <= chunkY2; chunkY++)
+			for (int chunkX = Math.max(0, x1) >> CHUNK_SHIFT; chunkX <= chunkX2; chunkX++)
+				if (sizes[chunkX + chunkY * chunksX] > 0)
+					sweep(chunkX, chunkY, x1, y1, x2, y2);
+	}
+
+	/* Drops the values of the now empty tiles in the flagged chunks. */
+	void chunksChanged(final boolean[] changed) {
+		if (size == 0)
+			return;
+		final int chunksX = tileLayer.getChunksX();
+		for (int chunk = 0; chunk < changed.length; chunk++)
+			if (changed[chunk] && sizes[chunk] > 0)
+				sweep(chunk % chunksX, chunk / chunksX, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	private void sweep(final int chunkX, final int chunkY, final int x1, final int y1, final int x2, final int y2) {
+		final int chunk = chunkX + chunkY * tileLayer.getChunksX();
+		final int[] keys = this.keys[chunk];
+		final int baseX = chunkX << CHUNK_SHIFT, baseY = chunkY << CHUNK_SHIFT;
+		// An emptied chunk within the edit drops all of its values at once.
+		if (tileLayer.isChunkEmpty(chunkX, chunkY) && x1 <= baseX && y1 <= baseY
+			&& x2 >= Math.min(tileLayer.getTilesX(), baseX + CHUNK_SIZE) && y2 >= Math.min(tileLayer.getTilesY(), baseY + CHUNK_SIZE)) {
+			size -= sizes[chunk];
+			sizes[chunk] = 0;
+			this.keys[chunk] = null;
+			values[chunk] = null;
+			return;
+		}
+		removed.clear();
+		for (final int stored : keys) {
+			final int key = stored - 1;
+			if (key == -1)
+				continue;
+			final int x = baseX + (key & CHUNK_MASK), y = baseY + (key >>> CHUNK_SHIFT);
+			if (x >= x1 && x < x2 && y >= y1 && y < y2 && (tileLayer.tileWord(chunkX, y) & (1L << (x & CHUNK_MASK))) == 0L)
+				removed.add(key);
+		}
+		for (int i = 0; i < removed.size; i++)
+			removeSlot(chunk, find(chunk, removed.get(i)));
+	}
+
+	private long get(final int x, final int y, final long defaultValue) {
+		if (tileLayer.isOutOfBounds(x, y))
+			return defaultValue;
+		final int chunk = chunk(x, y);
+		final int slot = find(chunk, local(x, y));
+		return (slot == -1) ? defaultValue : values[chunk][slot];
+	}
+
+	private boolean put(final int x, final int y, final long value) {
+		tileLayer.checkWritable();
+		if (!tileLayer.tileAt(x, y))
+			return false;
+		final int chunk = chunk(x, y);
+		final int key = local(x, y);
+		int[] keys = this.keys[chunk];
+		if (keys == null) {
+			keys = this.keys[chunk] = new int[MIN_CAPACITY];
+			values[chunk] = new long[MIN_CAPACITY];
+			if (shared != null)
+				shared[chunk] = false;
+		} else if ((sizes[chunk] + 1) * 4 > keys.length * 3 && find(chunk, key) == -1) {
+			resize(chunk, keys.length << 1);
+			keys = this.keys[chunk];
+		} else {
+			keys = writableChunk(chunk);
+		}
+		final int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != 0) {
+			if (keys[slot] == key + 1) {
+				values[chunk][slot] = value;
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key + 1;
+		values[chunk][slot] = value;
+		sizes[chunk]++;
+		size++;
+		return true;
+	}
+
+	private int find(final int chunk, final int key) {
+		final int[] keys = this.keys[chunk];
+		if (keys == null)
+			return -1;
+		final int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+			if (keys[slot] == key + 1)
+				return slot;
+		return -1;
+	}
+
+	/* Shifts the following entries of the probe sequence back instead of leaving a tombstone. */
+	private void removeSlot(final int chunk, int slot) {
+		final int[] keys = writableChunk(chunk);
+		final long[] values = this.values[chunk];
+		final int mask = keys.length - 1;
+		int next = (slot + 1) & mask;
+		while (keys[next] != 0) {
+			final int home = hash(keys[next] - 1) & mask;
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[slot] = 0;
+		size--;
+		if (--sizes[chunk] == 0) {
+			this.keys[chunk] = null;
+			this.values[chunk] = null;
+		}
+	}
+
+	private void resize(final int chunk, final int capacity) {
+		final int[] oldKeys = keys[chunk];
+		final long[] oldValues = values[chunk];
+		final int[] keys = this.keys[chunk] = new int[capacity];
+		final long[] values = this.values[chunk] = new long[capacity];
+		final int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0)
+				continue;
+			int slot = hash(oldKeys[i] - 1) & mask;
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+		if (shared != null)
+			shared[chunk] = false;
+	}
+
+	/* The keys of a chunk's map, cloning the map first if a copy shares it. */
+	private int[] writableChunk(final int chunk) {
+		if (shared != null && shared[chunk]) {
+			keys[chunk] = keys[chunk].clone();
+			values[chunk] = values[chunk].clone();
+			shared[chunk] = false;
+		}
+		return keys[chunk];
+	}
+
+	private int chunk(final int x, final int y) {
+		return (x >> CHUNK_SHIFT) + (y >> CHUNK_SHIFT) * tileLayer.getChunksX();
+	}
+
+	private static int local(final int x, final int y) {
+		return (x & CHUNK_MASK) | ((y & CHUNK_MASK) << CHUNK_SHIFT);
+	}
+
+	private static int hash(final int key) {
+		final int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void checkType(final Type type) {
+		if (this.type != type)
+			throw new IllegalStateException("Channel " + name + " holds " + this.type + " values, not " + type);
+	}
+
+	public enum Type {
+
+		INT((byte) 0),
+		FLOAT((byte) 1),
+		LONG((byte) 2);
+
+		final byte index;
+
+		Type(byte index) {
+			this.index = index;
+		}
+
+		public static Type fromIndex(byte b) {
+			if (b == 0)
+				return Type.INT;
+			else if (b == 1)
+				return Type.FLOAT;
+			else if (b == 2)
+				return Type.LONG;
+			else
+				throw new IllegalArgumentException("Unknown channel type: " + b);
+		}
+
+	}
+
+	public interface IChannelVisitor {
+
+		/* INT values are sign-extended, FLOAT values are their raw int bits, see Float#intBitsToFloat. */
+		void visit(int x, int y, long value);
+
+	}
+
+}
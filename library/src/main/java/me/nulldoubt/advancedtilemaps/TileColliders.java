@@ -0,0 +1,279 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Collision geometry of a tile grid per chunk, in tile units with tile (x, y) covering [x, x + 1) x [y, y + 1).
+ * Filled tiles are merged into as few rectangles as a greedy pass finds, and optionally traced into outline chains
+ * running counter-clockwise around filled tiles. Only chunks edited since the last update are regenerated.
+ */
+public class TileColliders {
+
+	private static final int VERTICES = CHUNK_SIZE + 1;
+
+	private final TileGrid tileGrid;
+	private final boolean outlines;
+
+	private final IntArray[] rectangles;
+	private final FloatArray[] vertices;
+	private final IntArray[] chains;
+	private final int[] versions;
+	private final boolean[] changed;
+
+	/* Scratch space of a single chunk. */
+	private final long[] rows;
+	private final byte[] edges;
+	private final byte[] incoming;
+
+	private IColliderListener listener;
+
+	public TileColliders(final TileGrid tileGrid, final boolean outlines) {
+		this.tileGrid = tileGrid;
+		this.outlines = outlines;
+		final int chunks = tileGrid.getChunksX() * tileGrid.getChunksY();
+		rectangles = new IntArray[chunks];
+		vertices = outlines ? new FloatArray[chunks] : null;
+		chains = outlines ? new IntArray[chunks] : null;
+		versions = new int[chunks];
+		changed = new boolean[chunks];
+		rows = new long[CHUNK_SIZE];
+		edges = outlines ? new byte[VERTICES * VERTICES] : null;
+		incoming = outlines ? new byte[VERTICES * VERTICES] : null;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			rectangles[chunk] = new IntArray();
+			if (outlines) {
+				vertices[chunk] = new FloatArray();
+				chains[chunk] = new IntArray();
+			}
+		}
+		regenerate(true);
+	}
+
+	public TileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	public boolean hasOutlines() {
+		return outlines;
+	}
+
+	public IColliderListener getListener() {
+		return listener;
+	}
+
+	public void setListener(final IColliderListener listener) {
+		this.listener = listener;
+	}
+
+	/* Regenerates the chunks edited since the last update, notifying the listener of each. Returns their amount. */
+	public int update() {
+		return regenerate(false);
+	}
+
+	/* x, y, width and height of each rectangle. */
+	public IntArray getRectangles(final int chunkX, final int chunkY) {
+		return rectangles[chunkX + chunkY * tileGrid.getChunksX()];
+	}
+
+	/* x and y of the vertices of all chains, see getChains. */
+	public FloatArray getVertices(final int chunkX, final int chunkY) {
+		if (!outlines)
+			throw new IllegalStateException("Outlines are disabled");
+		return vertices[chunkX + chunkY * tileGrid.getChunksX()];
+	}
+
+	/*
+	 * The offset of the first vertex, the amount of vertices and 1 for a closed loop or 0 for an open chain per chain.
+	 * Chains are cut where an outline crosses into another chunk.
+	 */
+	public IntArray getChains(final int chunkX, final int chunkY) {
+		if (!outlines)
+			throw new IllegalStateException("Outlines are disabled");
+		return chains[chunkX + chunkY * tileGrid.getChunksX()];
+	}
+
+	public int getRectangleCount() {
+		int count = 0;
+		for (final IntArray chunk : rectangles)
+			count += chunk.size / 4;
+		return count;
+	}
+
+	private int regenerate(final boolean all) {
+		final int chunksX = tileGrid.getChunksX();
+		final int chunksY = tileGrid.getChunksY();
+		for (int chunkY = 0; chunkY < chunksY; chunkY++)
+			for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+				final int chunk = chunkX + chunkY * chunksX;
+				final int version = tileGrid.getChunkVersion(chunkX, chunkY);
+				changed[chunk] = all || versions[chunk] != version;
+				versions[chunk] = version;
+			}
+
+		int regenerated = 0;
+		for (int chunkY = 0; chunkY < chunksY; chunkY++)
+			for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+				final int chunk = chunkX + chunkY * chunksX;
+				// Outlines along the chunk border also depend on the tiles next to it.
+				final boolean outlineChanged = outlines && (changed[chunk]
+					|| (chunkX > 0 && changed[chunk - 1])
+					|| (chunkX < chunksX - 1 && changed[chunk + 1])
+					|| (chunkY > 0 && changed[chunk - chunksX])
+					|| (chunkY < chunksY - 1 && changed[chunk + chunksX]));
+				if (!changed[chunk] && !outlineChanged)
+					continue;
+				if (changed[chunk])
+					mergeRectangles(chunkX, chunkY, rectangles[chunk]);
+				if (outlineChanged)
+					traceOutlines(chunkX, chunkY, vertices[chunk], chains[chunk]);
+				regenerated++;
+				if (listener != null && !all)
+					listener.chunkChanged(this, chunkX, chunkY);
+			}
+		return regenerated;
+	}
+
+	/* Greedily grows a rectangle from the lowest remaining run of each row upwards for as long as the run is filled. */
+	private void mergeRectangles(final int chunkX, final int chunkY, final IntArray rectangles) {
+		rectangles.clear();
+		final int x1 = chunkX << CHUNK_SHIFT;
+		final int y1 = chunkY << CHUNK_SHIFT;
+		final int height = Math.min(CHUNK_SIZE, tileGrid.getTilesY() - y1);
+		if (tileGrid.isChunkEmpty(chunkX, chunkY))
+			return;
+		if (tileGrid.isChunkFull(chunkX, chunkY)) {
+			rectangles.add(x1, y1, Math.min(CHUNK_SIZE, tileGrid.getTilesX() - x1), height);
+			return;
+		}
+		for (int y = 0; y < height; y++)
+			rows[y] = tileGrid.tileWord(chunkX, y1 + y);
+		for (int y = 0; y < height; y++) {
+			while (rows[y] != 0) {
+				final int x = Long.numberOfTrailingZeros(rows[y]);
+				final int width = Long.numberOfTrailingZeros(~(rows[y] >>> x));
+				final long run = TileGrid.rangeMask(x, x + width);
+				int top = y + 1;
+				while (top < height && (rows[top] & run) == run)
+					top++;
+				for (int row = y; row < top; row++)
+					rows[row] &= ~run;
+				rectangles.add(x1 + x, y1 + y, width, top - y);
+			}
+		}
+	}
+
+	/*
+	 * Collects the unit edges between filled tiles of the chunk and empty tiles, directed so that filled tiles lie to their left,
+	 * then walks them into chains, open ones first, turning left where two outlines touch so that each keeps to its own tiles.
+	 */
+	private void traceOutlines(final int chunkX, final int chunkY, final FloatArray vertices, final IntArray chains) {
+		vertices.clear();
+		chains.clear();
+		if (tileGrid.isChunkEmpty(chunkX, chunkY))
+			return;
+
+		final int y1 = chunkY << CHUNK_SHIFT;
+		final int height = Math.min(CHUNK_SIZE, tileGrid.getTilesY() - y1);
+		Arrays.fill(edges, (byte) 0);
+		Arrays.fill(incoming, (byte) 0);
+		for (int y = 0; y < height; y++) {
+			final long current = tileGrid.tileWord(chunkX, y1 + y);
+			if (current == 0L)
+				continue;
+			final long below = tileGrid.tileWord(chunkX, y1 + y - 1);
+			final long above = tileGrid.tileWord(chunkX, y1 + y + 1);
+			final long west = (current << 1) | (tileGrid.tileWord(chunkX - 1, y1 + y) >>> 63);
+			final long east = (current >>> 1) | (tileGrid.tileWord(chunkX + 1, y1 + y) << 63);
+			addEdges(current & ~below, 0, y, EAST);
+			addEdges(current & ~east, 1, y, NORTH);
+			addEdges(current & ~above, 1, y + 1, WEST);
+			addEdges(current & ~west, 0, y + 1, SOUTH);
+		}
+
+		// Chains starting without an edge leading into them are cut at the chunk border, the rest are loops.
+		for (int pass = 0; pass < 2; pass++)
+			for (int vertex = 0; vertex < edges.length; vertex++)
+				while (edges[vertex] != 0 && (pass == 1 || incoming[vertex] == 0))
+					trace(chunkX, chunkY, vertex, vertices, chains);
+	}
+
+	private static final int EAST = 0;
+	private static final int NORTH = 1;
+	private static final int WEST = 2;
+	private static final int SOUTH = 3;
+
+	private static final int[] STEP_X = {1, 0, -1, 0};
+	private static final int[] STEP_Y = {0, 1, 0, -1};
+
+	/* Adds an edge in direction from vertex (x + offsetX, y) for each bit x. */
+	private void addEdges(long bits, final int offsetX, final int y, final int direction) {
+		while (bits != 0) {
+			final int x = Long.numberOfTrailingZeros(bits) + offsetX;
+			final int vertex = y * VERTICES + x;
+			edges[vertex] |= (byte) (1 << direction);
+			incoming[vertex + STEP_X[direction] + STEP_Y[direction] * VERTICES]++;
+			bits &= bits - 1;
+		}
+	}
+
+	private void trace(final int chunkX, final int chunkY, final int start, final FloatArray vertices, final IntArray chains) {
+		final int originX = chunkX << CHUNK_SHIFT;
+		final int originY = chunkY << CHUNK_SHIFT;
+		final int offset = vertices.size;
+
+		int vertex = start;
+		int direction = Integer.numberOfTrailingZeros(edges[vertex]);
+		final int first = direction;
+		vertices.add(originX + vertex % VERTICES, originY + vertex / VERTICES);
+		boolean closed = false;
+		while (true) {
+			edges[vertex] &= (byte) ~(1 << direction);
+			vertex += STEP_X[direction] + STEP_Y[direction] * VERTICES;
+			incoming[vertex]--;
+			if (vertex == start) {
+				closed = true;
+				break;
+			}
+			final int next = turn(edges[vertex], direction);
+			if (next == -1)
+				break;
+			if (next != direction)
+				vertices.add(originX + vertex % VERTICES, originY + vertex / VERTICES);
+			direction = next;
+		}
+
+		if (!closed) {
+			vertices.add(originX + vertex % VERTICES, originY + vertex / VERTICES);
+		} else if (direction == first && vertices.size - offset > 2) {
+			// The loop started half way along a straight edge.
+			vertices.removeRange(offset, offset + 1);
+		}
+		chains.add(offset / 2, (vertices.size - offset) / 2, closed ? 1 : 0);
+	}
+
+	/* Left, straight on or right, in this order. */
+	private static int turn(final int edges, final int direction) {
+		final int left = (direction + 1) & 3;
+		if ((edges & (1 << left)) != 0)
+			return left;
+		if ((edges & (1 << direction)) != 0)
+			return direction;
+		final int right = (direction + 3) & 3;
+		if ((edges & (1 << right)) != 0)
+			return right;
+		return -1;
+	}
+
+	public interface IColliderListener {
+
+		void chunkChanged(TileColliders colliders, int chunkX, int chunkY);
+
+	}
+
+}
@@ -0,0 +1,149 @@
+package me.nulldoubt.advancedtilemaps;
+
+import java.util.Arrays;
+
+/* 4-connected components of a tile layer, labeled 1..count with 0 being empty. */
+public class TileComponents {
+
+	private int[] labels;
+	private int[] parents;
+	private int[] sizes;
+
+	private int width;
+	private int height;
+	private int count;
+
+	public TileComponents() {
+		labels = new int[0];
+		parents = new int[1];
+		sizes = new int[1];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/* Row-major, indexed by y * width + x. */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	public int labelAt(final int x, final int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			return 0;
+		return labels[y * width + x];
+	}
+
+	public int sizeOf(final int label) {
+		if (label <= 0 || label > count)
+			return 0;
+		return sizes[label];
+	}
+
+	public int getLargest() {
+		int largest = 0;
+		for (int label = 1; label <= count; label++)
+			if (sizes[label] > sizes[largest])
+				largest = label;
+		return largest;
+	}
+
+	void label(final TileGrid tileGrid) {
+		final int tilesX = tileGrid.getTilesX();
+		final int tilesY = tileGrid.getTilesY();
+		final int words = tileGrid.getChunksX();
+		width = tilesX;
+		height = tilesY;
+		count = 0;
+
+		final int cells = tilesX * tilesY;
+		if (labels.length < cells)
+			labels = new int[cells];
+		final int maxRuns = ((tilesX + 1) / 2) * tilesY + 1;
+		if (parents.length < maxRuns)
+			parents = new int[maxRuns];
+		Arrays.fill(labels, 0, cells, 0);
+
+		// First pass: one provisional label per horizontal run, unioned with the runs touching it in the row below.
+		int next = 1;
+		for (int y = 0; y < tilesY; y++) {
+			final int row = y * tilesX;
+			int carry = 0;
+			for (int wordX = 0; wordX < words; wordX++) {
+				final int base = wordX << TileGrid.CHUNK_SHIFT;
+				final long below = tileGrid.tileWord(wordX, y - 1);
+				long bits = tileGrid.tileWord(wordX, y);
+				int nextCarry = 0;
+				while (bits != 0) {
+					final int start = Long.numberOfTrailingZeros(bits);
+					final int end = start + Long.numberOfTrailingZeros(~(bits >>> start));
+					final int label;
+					if (start == 0 && carry != 0) {
+						label = carry;
+					} else {
+						label = next++;
+						parents[label] = label;
+					}
+					Arrays.fill(labels, row + base + start, row + base + end, label);
+
+					// Every run below is a single set already, so one union per touching run is enough.
+					long touching = below & TileGrid.rangeMask(start, end);
+					while (touching != 0) {
+						union(label, labels[row - tilesX + base + Long.numberOfTrailingZeros(touching)]);
+						touching &= touching + (touching & -touching);
+					}
+
+					if (end == 64)
+						nextCarry = label;
+					bits &= bits + (bits & -bits);
+				}
+				carry = nextCarry;
+			}
+		}
+
+		// Roots always have the smallest label of their set, so resolving in ascending order sees them first.
+		for (int label = 1; label < next; label++) {
+			final int parent = parents[label];
+			parents[label] = (parent == label) ? -(++count) : parents[parent];
+		}
+
+		if (sizes.length < count + 1)
+			sizes = new int[count + 1];
+		Arrays.fill(sizes, 0, count + 1, 0);
+
+		// Second pass: replace provisional labels with their compact component ids.
+		for (int i = 0; i < cells; i++) {
+			if (labels[i] == 0)
+				continue;
+			final int label = -parents[labels[i]];
+			labels[i] = label;
+			sizes[label]++;
+		}
+	}
+
+	private int find(int label) {
+		while (parents[label] != label) {
+			parents[label] = parents[parents[label]];
+			label = parents[label];
+		}
+		return label;
+	}
+
+	private void union(final int a, final int b) {
+		final int rootA = find(a);
+		final int rootB = find(b);
+		if (rootA < rootB)
+			parents[rootB] = rootA;
+		else if (rootB < rootA)
+			parents[rootA] = rootB;
+	}
+
+}
@@ -0,0 +1,167 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.io.*;
+import java.util.Arrays;
+
+/* Compact chunk deltas between tile layer states, meant for replicating edits over the network. */
+public final class TileDelta {
+
+	private static final int MODE_XOR = 0;
+	private static final int MODE_SET = 1;
+
+	private TileDelta() {}
+
+	/* Writes every chunk that differs between base and current as a run-length encoded XOR bitmap. */
+	public static int write(final TileGrid base, final TileGrid current, final OutputStream outputStream) {
+		if (base.getTilesX() != current.getTilesX() || base.getTilesY() != current.getTilesY())
+			throw new IllegalArgumentException("Tile grids differ in size");
+		return write(current, base, Integer.MIN_VALUE, outputStream);
+	}
+
+	/* Writes every chunk that was edited after the given version of current with its full contents. */
+	public static int write(final TileGrid current, final int sinceVersion, final OutputStream outputStream) {
+		return write(current, null, sinceVersion, outputStream);
+	}
+
+	private static int write(final TileGrid current, final TileGrid base, final int sinceVersion, final OutputStream outputStream) {
+		final DataOutputStream out = new DataOutputStream(outputStream);
+		int chunks = 0;
+		try {
+			writeVarInt(out, current.getTilesX());
+			writeVarInt(out, current.getTilesY());
+			out.writeInt(current.getVersion());
+			for (int chunkY = 0; chunkY < current.getChunksY(); chunkY++) {
+				for (int chunkX = 0; chunkX < current.getChunksX(); chunkX++) {
+					if (base == null ? current.getChunkVersion(chunkX, chunkY) <= sinceVersion : !differs(current, base, chunkX, chunkY))
+						continue;
+					writeVarInt(out, chunkX + chunkY * current.getChunksX() + 1);
+					out.writeByte(base == null ? MODE_SET : MODE_XOR);
+					writeRuns(out, current, base, chunkX, chunkY);
+					chunks++;
+				}
+			}
+			writeVarInt(out, 0);
+			out.flush();
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to write tile delta", e);
+		}
+		return chunks;
+	}
+
+	/* Applies a delta written by one of the write methods and returns the version of the layer it was written from. */
+	public static int apply(final TileGrid tileGrid, final InputStream inputStream) {
+		final DataInputStream in = new DataInputStream(inputStream);
+		try {
+			if (readVarInt(in) != tileGrid.getTilesX() || readVarInt(in) != tileGrid.getTilesY())
+				throw new IllegalArgumentException("Tile delta does not match the tile grid size");
+			final int version = in.readInt();
+			int chunk;
+			while ((chunk = readVarInt(in)) != 0) {
+				chunk--;
+				final int mode = in.readUnsignedByte();
+				if (mode != MODE_XOR && mode != MODE_SET)
+					throw new GdxRuntimeException("Unknown tile delta mode: " + mode);
+				if (chunk >= tileGrid.getChunksX() * tileGrid.getChunksY())
+					throw new GdxRuntimeException("Tile delta chunk out of bounds: " + chunk);
+				readRuns(in, tileGrid, chunk % tileGrid.getChunksX(), chunk / tileGrid.getChunksX(), mode == MODE_XOR);
+			}
+			return version;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to read tile delta", e);
+		}
+	}
+
+	private static boolean differs(final TileGrid current, final TileGrid base, final int chunkX, final int chunkY) {
+		final int chunk = chunkX + chunkY * current.getChunksX();
+		return !Arrays.equals(current.tileChunk(chunk), base.tileChunk(chunk));
+	}
+
+	/* Alternating run lengths in row-major chunk order, starting with a (possibly empty) run of unset bits. */
+	private static void writeRuns(final DataOutputStream out, final TileGrid current, final TileGrid base, final int chunkX, final int chunkY) throws IOException {
+		final int chunk = chunkX + chunkY * current.getChunksX();
+		final int width = Math.min(TileGrid.CHUNK_SIZE, current.getTilesX() - (chunkX << TileGrid.CHUNK_SHIFT));
+		final int height = Math.min(TileGrid.CHUNK_SIZE, current.getTilesY() - (chunkY << TileGrid.CHUNK_SHIFT));
+		final long full = TileGrid.rangeMask(0, width);
+		final long[] currentRows = current.tileChunk(chunk);
+		final long[] baseRows = (base == null) ? null : base.tileChunk(chunk);
+		boolean value = false;
+		int run = 0;
+		for (int row = 0; row < height; row++) {
+			final long word = (baseRows == null) ? currentRows[row] : currentRows[row] ^ baseRows[row];
+			if (word == (value ? full : 0L)) {
+				run += width;
+				continue;
+			}
+			for (int i = 0; i < width; i++) {
+				final boolean bit = ((word >>> i) & 1) != 0;
+				if (bit == value) {
+					run++;
+				} else {
+					writeVarInt(out, run);
+					value = bit;
+					run = 1;
+				}
+			}
+		}
+		writeVarInt(out, run);
+	}
+
+	private static void readRuns(final DataInputStream in, final TileGrid tileGrid, final int chunkX, final int chunkY, final boolean xor) throws IOException {
+		final int chunk = chunkX + chunkY * tileGrid.getChunksX();
+		final int x1 = chunkX << TileGrid.CHUNK_SHIFT, y1 = chunkY << TileGrid.CHUNK_SHIFT;
+		final int width = Math.min(TileGrid.CHUNK_SIZE, tileGrid.getTilesX() - x1);
+		final int height = Math.min(TileGrid.CHUNK_SIZE, tileGrid.getTilesY() - y1);
+		final long[] rows = tileGrid.writableChunk(chunk);
+		int remaining = width * height;
+		int cell = 0;
+		boolean value = false;
+		while (remaining > 0) {
+			final int run = readVarInt(in);
+			if (run > remaining)
+				throw new GdxRuntimeException("Tile delta run exceeds chunk bounds");
+			if (value || !xor) {
+				// Apply the run one row segment at a time.
+				for (int i = cell; i < cell + run; ) {
+					final int row = i / width;
+					final int column = i % width;
+					final int end = Math.min(width, column + cell + run - i);
+					final long mask = TileGrid.rangeMask(column, end);
+					if (xor)
+						tileGrid.setWord(rows, chunk, row, rows[row] ^ mask);
+					else if (value)
+						tileGrid.setWord(rows, chunk, row, rows[row] | mask);
+					else
+						tileGrid.setWord(rows, chunk, row, rows[row] & ~mask);
+					i += end - column;
+				}
+			}
+			cell += run;
+			remaining -= run;
+			value = !value;
+		}
+		tileGrid.markChunks(x1, y1, x1 + width, y1 + height);
+		tileGrid.updateMasks(x1, y1, x1 + width + 1, y1 + height + 1);
+	}
+
+	private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(final DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new GdxRuntimeException("Malformed tile delta varint");
+	}
+
+}
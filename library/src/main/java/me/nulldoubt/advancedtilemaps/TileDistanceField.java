@@ -0,0 +1,300 @@
+package me.nulldoubt.advancedtilemaps;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Exact euclidean distance from every tile to the nearest tile in a state (Felzenszwalb-Huttenlocher), computed column by
+ * column and then row by row in parallel. The distances along columns are kept, so after edits only the columns of the
+ * edited chunks are recomputed. Rows are only recomputed within a window around each edited chunk, grown until no tile
+ * beyond it was as close to the chunk as to its nearest tile in the state, as only such tiles can change distance.
+ */
+public class TileDistanceField {
+
+	/* Squared distance of tiles without any tile in the state in the grid. */
+	public static final int INFINITE = Integer.MAX_VALUE;
+
+	private final TileGrid tileGrid;
+	private final boolean state;
+	private final int tilesX;
+	private final int tilesY;
+
+	/* Distance to the nearest tile in the state within the same column. */
+	private final int[] columns;
+	private final int[] distances;
+
+	private final int[] versions;
+	private final boolean[] changedColumns;
+	private final boolean[] changedChunks;
+	private final int[] rows;
+	/* Tiles [windowFrom, windowTo] of each row to recompute, windowTo -1 if none. */
+	private final int[] windowFrom;
+	private final int[] windowTo;
+
+	public TileDistanceField(final TileGrid tileGrid, final boolean state) {
+		this.tileGrid = tileGrid;
+		this.state = state;
+		tilesX = tileGrid.getTilesX();
+		tilesY = tileGrid.getTilesY();
+		if ((long) tilesX * tilesX + (long) tilesY * tilesY >= INFINITE)
+			throw new IllegalArgumentException("Squared distances of a " + tilesX + "x" + tilesY + " grid exceed an int");
+		columns = new int[tilesX * tilesY];
+		distances = new int[tilesX * tilesY];
+		versions = new int[tileGrid.getChunksX() * tileGrid.getChunksY()];
+		changedColumns = new boolean[tileGrid.getChunksX()];
+		changedChunks = new boolean[versions.length];
+		rows = new int[tilesY];
+		windowFrom = new int[tilesY];
+		windowTo = new int[tilesY];
+		Arrays.fill(columns, INFINITE);
+		Arrays.fill(distances, INFINITE);
+		for (int chunk = 0; chunk < versions.length; chunk++)
+			versions[chunk] = tileGrid.getChunkVersion(chunk % tileGrid.getChunksX(), chunk / tileGrid.getChunksX());
+		Arrays.fill(changedColumns, true);
+		Arrays.fill(windowTo, tilesX - 1);
+		recompute();
+	}
+
+	public TileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	/* The state of the tiles distances are measured to. */
+	public boolean getState() {
+		return state;
+	}
+
+	/* In tiles between tile centers, 0 on tiles in the state and infinite if there are none. */
+	public float getDistance(final int x, final int y) {
+		final int squared = distances[x + y * tilesX];
+		return (squared == INFINITE) ? Float.POSITIVE_INFINITY : (float) Math.sqrt(squared);
+	}
+
+	/* INFINITE if there are no tiles in the state. */
+	public int getSquaredDistance(final int x, final int y) {
+		return distances[x + y * tilesX];
+	}
+
+	/* Squared distances of all tiles, tile (x, y) at x + y * tilesX. Only valid until the next update. */
+	public int[] getSquaredDistances() {
+		return distances;
+	}
+
+	/* Recomputes the distances affected by edits since the last update and returns the amount of rows recomputed. */
+	public int update() {
+		final int chunksX = tileGrid.getChunksX();
+		boolean any = false;
+		for (int chunk = 0; chunk < versions.length; chunk++) {
+			final int version = tileGrid.getChunkVersion(chunk % chunksX, chunk / chunksX);
+			if (versions[chunk] != version) {
+				versions[chunk] = version;
+				changedChunks[chunk] = true;
+				any = true;
+			}
+		}
+		if (!any)
+			return 0;
+		// Windows are measured on the distances before the edits, so all of them are marked before any is recomputed.
+		Arrays.fill(windowFrom, tilesX);
+		Arrays.fill(windowTo, -1);
+		for (int chunk = 0; chunk < versions.length; chunk++) {
+			if (changedChunks[chunk]) {
+				changedChunks[chunk] = false;
+				changedColumns[chunk % chunksX] = true;
+				markWindow(chunk % chunksX, chunk / chunksX);
+			}
+		}
+		return recompute();
+	}
+
+	/*
+	 * Only tiles at least as close to an edited tile as to their nearest tile in the state can change distance. The
+	 * distances are 1-Lipschitz, so once every tile on a ring around the chunk is more than a tile closer to its nearest
+	 * tile in the state than to the chunk, no tile beyond the ring can be such a tile either.
+	 */
+	private void markWindow(final int chunkX, final int chunkY) {
+		final int x1 = chunkX << CHUNK_SHIFT;
+		final int y1 = chunkY << CHUNK_SHIFT;
+		final int x2 = Math.min(x1 + CHUNK_SIZE, tilesX) - 1;
+		final int y2 = Math.min(y1 + CHUNK_SIZE, tilesY) - 1;
+		int ring = 0;
+		while (x1 - ring > 0 || x2 + ring < tilesX - 1 || y1 - ring > 0 || y2 + ring < tilesY - 1) {
+			ring++;
+			if (isBeyond(x1, y1, x2, y2, ring))
+				break;
+		}
+		final int from = Math.max(x1 - ring, 0);
+		final int to = Math.min(x2 + ring, tilesX - 1);
+		for (int y = Math.max(y1 - ring, 0); y <= Math.min(y2 + ring, tilesY - 1); y++) {
+			windowFrom[y] = Math.min(windowFrom[y], from);
+			windowTo[y] = Math.max(windowTo[y], to);
+		}
+	}
+
+	private boolean isBeyond(final int x1, final int y1, final int x2, final int y2, final int ring) {
+		final int left = x1 - ring, bottom = y1 - ring, right = x2 + ring, top = y2 + ring;
+		for (int x = Math.max(left, 0); x <= Math.min(right, tilesX - 1); x++)
+			if ((bottom >= 0 && !isBeyond(x, bottom, x1, y1, x2, y2)) || (top < tilesY && !isBeyond(x, top, x1, y1, x2, y2)))
+				return false;
+		for (int y = Math.max(bottom + 1, 0); y <= Math.min(top - 1, tilesY - 1); y++)
+			if ((left >= 0 && !isBeyond(left, y, x1, y1, x2, y2)) || (right < tilesX && !isBeyond(right, y, x1, y1, x2, y2)))
+				return false;
+		return true;
+	}
+
+	private boolean isBeyond(final int x, final int y, final int x1, final int y1, final int x2, final int y2) {
+		final int squared = distances[x + y * tilesX];
+		if (squared == INFINITE)
+			return false;
+		final long dx = Math.max(0, Math.max(x1 - x, x - x2));
+		final long dy = Math.max(0, Math.max(y1 - y, y - y2));
+		return Math.sqrt(squared) + 1.0 < Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private int recompute() {
+		final boolean parallel = tileGrid.allowsConcurrentAccess();
+		if (parallel)
+			ForkJoinPool.commonPool().invoke(new ColumnTask(this, 0, changedColumns.length));
+		else
+			computeColumns(0, changedColumns.length);
+		Arrays.fill(changedColumns, false);
+
+		int count = 0;
+		for (int y = 0; y < tilesY; y++)
+			if (windowTo[y] >= windowFrom[y])
+				rows[count++] = y;
+		if (parallel)
+			ForkJoinPool.commonPool().invoke(new RowTask(this, 0, count));
+		else
+			computeRows(0, count);
+		return count;
+	}
+
+	/* Distances along the columns of the changed chunk columns [from, to). */
+	private void computeColumns(final int from, final int to) {
+		long[] words = null;
+		int[] column = null;
+		for (int wordX = from; wordX < to; wordX++) {
+			if (!changedColumns[wordX])
+				continue;
+			if (words == null) {
+				words = new long[tilesY];
+				column = new int[tilesY];
+			}
+			for (int y = 0; y < tilesY; y++) {
+				final long word = tileGrid.tileWord(wordX, y);
+				words[y] = state ? word : ~word;
+			}
+			final int x1 = wordX << CHUNK_SHIFT;
+			final int width = Math.min(CHUNK_SIZE, tilesX - x1);
+			for (int i = 0; i < width; i++) {
+				int distance = INFINITE;
+				for (int y = 0; y < tilesY; y++) {
+					distance = ((words[y] >>> i) & 1L) != 0L ? 0 : (distance == INFINITE) ? INFINITE : distance + 1;
+					column[y] = distance;
+				}
+				distance = INFINITE;
+				for (int y = tilesY - 1; y >= 0; y--) {
+					distance = (column[y] == 0) ? 0 : (distance == INFINITE) ? INFINITE : distance + 1;
+					columns[x1 + i + y * tilesX] = Math.min(column[y], distance);
+				}
+			}
+		}
+	}
+
+	/* Lower envelope of the parabolas rooted at the column distances of each of the rows [from, to), read within their window. */
+	private void computeRows(final int from, final int to) {
+		final int[] roots = new int[tilesX];
+		final long[] heights = new long[tilesX];
+		final double[] bounds = new double[tilesX + 1];
+		for (int i = from; i < to; i++) {
+			final int row = rows[i];
+			final int offset = row * tilesX;
+			int k = -1;
+			for (int q = 0; q < tilesX; q++) {
+				final int column = columns[offset + q];
+				if (column == INFINITE)
+					continue;
+				final long height = (long) column * column;
+				double bound = Double.NEGATIVE_INFINITY;
+				while (k >= 0) {
+					bound = ((height + (long) q * q) - (heights[k] + (long) roots[k] * roots[k])) / (2.0 * (q - roots[k]));
+					if (bound > bounds[k])
+						break;
+					k--;
+				}
+				k++;
+				roots[k] = q;
+				heights[k] = height;
+				bounds[k] = (k == 0) ? Double.NEGATIVE_INFINITY : bound;
+				bounds[k + 1] = Double.POSITIVE_INFINITY;
+			}
+			if (k == -1) {
+				Arrays.fill(distances, offset + windowFrom[row], offset + windowTo[row] + 1, INFINITE);
+				continue;
+			}
+			k = 0;
+			for (int p = windowFrom[row]; p <= windowTo[row]; p++) {
+				while (bounds[k + 1] < p)
+					k++;
+				final long dx = p - roots[k];
+				distances[offset + p] = (int) (dx * dx + heights[k]);
+			}
+		}
+	}
+
+	private static class ColumnTask extends RecursiveAction {
+
+		private final TileDistanceField field;
+		private final int from;
+		private final int to;
+
+		private ColumnTask(TileDistanceField field, int from, int to) {
+			this.field = field;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new ColumnTask(field, from, middle), new ColumnTask(field, middle, to));
+				return;
+			}
+			field.computeColumns(from, to);
+		}
+
+	}
+
+	private static class RowTask extends RecursiveAction {
+
+		private static final int THRESHOLD = 64;
+
+		private final TileDistanceField field;
+		private final int from;
+		private final int to;
+
+		private RowTask(TileDistanceField field, int from, int to) {
+			this.field = field;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new RowTask(field, from, middle), new RowTask(field, middle, to));
+				return;
+			}
+			field.computeRows(from, to);
+		}
+
+	}
+
+}
@@ -0,0 +1,146 @@
+package me.nulldoubt.advancedtilemaps;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Fills equally sized grids from a generator evaluated in parallel, a row of chunks per task, writing whole chunks
+ * straight into the grids and computing all masks in a single parallel pass at the end. One evaluation decides the
+ * tiles of every grid, so related layers, e.g. ground and water from the same noise, are generated together.
+ */
+public final class TileGenerator {
+
+	private TileGenerator() {}
+
+	/* Replaces all tiles of the grids, tile (x, y) of grids[i] being filled if bit i of generator.generate(x, y) is set. */
+	public static void generate(final ICellGenerator generator, final TileGrid... grids) {
+		run(generator, null, grids);
+	}
+
+	/* Replaces all tiles of the grids a row at a time, see IRowGenerator. */
+	public static void generateRows(final IRowGenerator generator, final TileGrid... grids) {
+		run(null, generator, grids);
+	}
+
+	private static void run(final ICellGenerator cells, final IRowGenerator rows, final TileGrid[] grids) {
+		if (grids.length == 0)
+			return;
+		if (grids.length > 32)
+			throw new IllegalArgumentException("At most 32 grids can be generated at once, got " + grids.length);
+		final TileGrid first = grids[0];
+		boolean parallel = true;
+		for (final TileGrid tileGrid : grids) {
+			if (tileGrid.getTilesX() != first.getTilesX() || tileGrid.getTilesY() != first.getTilesY())
+				throw new IllegalArgumentException("Tile grids differ in size");
+			parallel &= tileGrid.allowsConcurrentAccess();
+		}
+
+		if (parallel)
+			ForkJoinPool.commonPool().invoke(new GenerateTask(cells, rows, grids, 0, first.getChunksY()));
+		else
+			generate(cells, rows, grids, 0, first.getChunksY());
+
+		final boolean[] changed = new boolean[first.getChunksX() * first.getChunksY()];
+		Arrays.fill(changed, true);
+		for (final TileGrid tileGrid : grids) {
+			tileGrid.countFilled();
+			tileGrid.updateChunks(changed);
+		}
+	}
+
+	/* Generates the chunk rows [from, to) into a buffer holding one chunk row of every grid, then copies it chunk by chunk. */
+	private static void generate(final ICellGenerator cells, final IRowGenerator rows, final TileGrid[] grids, final int from, final int to) {
+		final int tilesX = grids[0].getTilesX(), tilesY = grids[0].getTilesY();
+		final int chunksX = grids[0].getChunksX();
+		final long[][] band = new long[grids.length][chunksX * CHUNK_SIZE];
+		final long[][] row = (rows != null) ? new long[grids.length][chunksX] : null;
+		final long[] chunk = new long[CHUNK_SIZE];
+		for (int chunkY = from; chunkY < to; chunkY++) {
+			for (final long[] words : band)
+				Arrays.fill(words, 0L);
+			final int y1 = chunkY << CHUNK_SHIFT;
+			final int y2 = Math.min(tilesY, y1 + CHUNK_SIZE);
+			for (int y = y1; y < y2; y++) {
+				final int offset = (y - y1) * chunksX;
+				if (rows != null) {
+					for (final long[] words : row)
+						Arrays.fill(words, 0L);
+					rows.generate(y, row);
+					for (int grid = 0; grid < grids.length; grid++)
+						System.arraycopy(row[grid], 0, band[grid], offset, chunksX);
+					continue;
+				}
+				for (int x = 0; x < tilesX; x++) {
+					int bits = cells.generate(x, y);
+					while (bits != 0) {
+						final int grid = Integer.numberOfTrailingZeros(bits);
+						if (grid < grids.length)
+							band[grid][offset + (x >> CHUNK_SHIFT)] |= 1L << (x & 63);
+						bits &= bits - 1;
+					}
+				}
+			}
+			for (int grid = 0; grid < grids.length; grid++) {
+				for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+					final long valid = grids[grid].validMask(chunkX);
+					Arrays.fill(chunk, 0L);
+					for (int y = y1; y < y2; y++)
+						chunk[y - y1] = band[grid][(y - y1) * chunksX + chunkX] & valid;
+					grids[grid].setChunk(chunkX + chunkY * chunksX, chunk);
+				}
+			}
+		}
+	}
+
+	private static class GenerateTask extends RecursiveAction {
+
+		private final ICellGenerator cells;
+		private final IRowGenerator rows;
+		private final TileGrid[] grids;
+		private final int from;
+		private final int to;
+
+		private GenerateTask(ICellGenerator cells, IRowGenerator rows, TileGrid[] grids, int from, int to) {
+			this.cells = cells;
+			this.rows = rows;
+			this.grids = grids;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new GenerateTask(cells, rows, grids, from, middle), new GenerateTask(cells, rows, grids, middle, to));
+				return;
+			}
+			generate(cells, rows, grids, from, to);
+		}
+
+	}
+
+	/* Called concurrently for different tiles, so implementations must not keep state between calls. */
+	public interface ICellGenerator {
+
+		/* Bit i set for tile (x, y) of the i-th grid to be filled. */
+		int generate(int x, int y);
+
+	}
+
+	/* Called concurrently for different rows, so implementations must not keep state between calls. */
+	public interface IRowGenerator {
+
+		/*
+		 * Sets the bits of the filled tiles of row y into the zeroed rows[i] of the i-th grid,
+		 * tile x being bit x % 64 of word x / 64.
+		 */
+		void generate(int y, long[][] rows);
+
+	}
+
+}
@@ -0,0 +1,1602 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/*
+ * The data half of a tile layer: occupancy, auto-tile masks, edits and queries, without any textures or rendering.
+ * Grids can be used on their own, e.g. on a headless server, and copied cheaply, see copy().
+ */
+public class TileGrid {
+
+	static final int CHUNK_SHIFT = 6;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final IntMap<Byte> configuration;
+	private static final byte[] defaultLookup;
+
+	private static Supplier<ICompressionStrategy> customCompressionStrategySupplier;
+	private static ICompressionStrategy defaultCompressionStrategy;
+
+	static {
+		configuration = new IntMap<>(16);
+		configuration.put(0b1111, (byte) 6);
+		configuration.put(0b0001, (byte) 13);
+		configuration.put(0b0010, (byte) 0);
+		configuration.put(0b0100, (byte) 8);
+		configuration.put(0b1000, (byte) 15);
+		configuration.put(0b0101, (byte) 1);
+		configuration.put(0b1010, (byte) 11);
+		configuration.put(0b0011, (byte) 3);
+		configuration.put(0b1100, (byte) 9);
+		configuration.put(0b0111, (byte) 5);
+		configuration.put(0b1011, (byte) 2);
+		configuration.put(0b1101, (byte) 10);
+		configuration.put(0b1110, (byte) 7);
+		configuration.put(0b0110, (byte) 14);
+		configuration.put(0b1001, (byte) 4);
+		configuration.put(0b0000, (byte) 12);
+
+		defaultLookup = new byte[16];
+		for (int bitmask = 0; bitmask < 16; bitmask++)
+			defaultLookup[bitmask] = configuration.get(bitmask);
+
+		defaultCompressionStrategy = CompressionStrategy.RUN_LENGTH_COMPRESSED;
+	}
+
+	/* Applies to every layer without its own auto-tile lookup, see setAutoTileLookup(byte[]). */
+	public static void setAutoTileConfiguration(IntMap<Byte> configuration) {
+		TileGrid.configuration.clear(16);
+		TileGrid.configuration.putAll(configuration);
+		for (int bitmask = 0; bitmask < 16; bitmask++)
+			defaultLookup[bitmask] = TileGrid.configuration.get(bitmask);
+	}
+
+	static byte getAutoTileIndex(final int bitmask) {
+		return defaultLookup[bitmask];
+	}
+
+	/* Bits [from, to) of a word. */
+	static long rangeMask(final int from, final int to) {
+		if (from >= to)
+			return 0L;
+		return (to == 64 ? -1L : (1L << to) - 1) & (-1L << from);
+	}
+
+	public static ICompressionStrategy getDefaultCompressionStrategy() {
+		return defaultCompressionStrategy;
+	}
+
+	public static void setDefaultCompressionStrategy(ICompressionStrategy defaultCompressionStrategy) {
+		TileGrid.defaultCompressionStrategy = defaultCompressionStrategy;
+	}
+
+	public static void setCustomCompressionStrategySupplier(Supplier<ICompressionStrategy> customCompressionStrategySupplier) {
+		TileGrid.customCompressionStrategySupplier = customCompressionStrategySupplier;
+	}
+
+	/* Serialization methods, reading only the grid of files written by TileLayer as well. */
+
+	/* Reads the native format, see LayerFile, or legacy UBJson. */
+	public static TileGrid read(FileHandle fileHandle) {
+		try (final FileChannel channel = LayerFile.open(fileHandle)) {
+			if (channel != null)
+				return LayerFile.readGrid(channel);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to read tile grid", e);
+		}
+		return read(fileHandle.read());
+	}
+
+	/* Reads the native format or legacy UBJson, closing the stream. */
+	public static TileGrid read(InputStream inputStream) {
+		final BufferedInputStream in = new BufferedInputStream(inputStream);
+		try {
+			if (LayerFile.skipMagic(in)) {
+				try (final ReadableByteChannel channel = Channels.newChannel(in)) {
+					return LayerFile.readGrid(channel);
+				}
+			}
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to read tile grid", e);
+		}
+		return readUBJson(in);
+	}
+
+	private static TileGrid readUBJson(InputStream inputStream) {
+		final UBJsonReader reader = new UBJsonReader();
+		reader.oldFormat = false;
+
+		final JsonValue root = reader.parse(inputStream);
+		final TileGrid tileGrid = new TileGrid(root.getInt("tilesX"), root.getInt("tilesY"), false);
+		readTiles(root, tileGrid);
+		return tileGrid;
+	}
+
+	/* Writes the native format, see LayerFile, including the settings and channels of layers. */
+	public static boolean write(TileGrid tileGrid, FileHandle fileHandle) {
+		try {
+			LayerFile.write(tileGrid, fileHandle);
+			return true;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to write tile grid", e);
+		}
+	}
+
+	/* Writes the native format, closing the stream. */
+	public static boolean write(TileGrid tileGrid, OutputStream outputStream) {
+		try (final WritableByteChannel channel = Channels.newChannel(outputStream)) {
+			LayerFile.write(tileGrid, channel);
+			return true;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to write tile grid", e);
+		}
+	}
+
+	/* Writes the legacy UBJson format, for readers predating the native one. */
+	public static boolean writeUBJson(TileGrid tileGrid, OutputStream outputStream) {
+		try (final UBJsonWriter writer = new UBJsonWriter(outputStream)) {
+			writer
+				.object()
+				.set("tilesX", tileGrid.tilesX)
+				.set("tilesY", tileGrid.tilesY);
+			writeTiles(writer, tileGrid);
+			writer
+				.pop()
+				.flush();
+			return true;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to compress tile grid", e);
+		}
+	}
+
+	static void readTiles(final JsonValue root, final TileGrid tileGrid) {
+		if (root.has("compressionStrategy"))
+			tileGrid.setCompressionStrategy(CompressionStrategy.fromIndex(root.getByte("compressionStrategy")));
+		else if (customCompressionStrategySupplier == null)
+			throw new IllegalStateException("Custom compression strategy supplier not set");
+		else
+			tileGrid.setCompressionStrategy(customCompressionStrategySupplier.get());
+
+		boolean[][] tiles;
+		try {
+			tiles = tileGrid.compressionStrategy.decompress(root.get("tiles").asByteArray(), tileGrid.tilesX, tileGrid.tilesY);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to decompress tile layer", e);
+		}
+		tileGrid.setTiles(tiles);
+	}
+
+	static void writeTiles(final UBJsonWriter writer, final TileGrid tileGrid) throws IOException {
+		if (tileGrid.compressionStrategy instanceof CompressionStrategy)
+			writer.set("compressionStrategy", ((CompressionStrategy) tileGrid.compressionStrategy).index);
+		writer.set("tiles", tileGrid.compressionStrategy.compress(tileGrid.toArray(), tileGrid.tilesX, tileGrid.tilesY));
+	}
+
+	final int tilesX;
+	final int tilesY;
+
+	/* Both are stored in square chunks, one word per chunk row for tiles and two 4-bit neighbor masks per byte. */
+	private final long[][] tiles;
+	private final byte[][] masks;
+	byte[] lookup;
+
+	/* Cold chunks are null in tiles and masks, keeping their compressed tiles, top row and east column instead. */
+	private byte[][] compressed;
+	private long[] coldTop;
+	private long[] coldEast;
+	private int[] hotPrevious;
+	private int[] hotNext;
+	private int hotHead;
+	private int hotTail;
+	private int hotCount;
+	private int hotChunks;
+
+	/* Chunks whose tiles and masks are also referenced by a copy, cloned before they are written to. */
+	private boolean[] shared;
+
+	private final int chunksX;
+	private final int chunksY;
+	private final int[] chunkVersions;
+	private int version;
+
+	/* Filled tiles per chunk, telling empty and full chunks apart without looking at their tiles. */
+	private final int[] chunkFilled;
+	private int filled;
+
+	private ICompressionStrategy compressionStrategy;
+
+	private final TileGrid[] neighbors;
+	private final boolean frozen;
+
+	private IntArray spanStack;
+
+	public TileGrid(int tilesX, int tilesY, boolean fill) {
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+
+		chunksX = (tilesX + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+		chunksY = (tilesY + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+		chunkVersions = new int[chunksX * chunksY];
+		chunkFilled = new int[chunksX * chunksY];
+
+		tiles = new long[chunksX * chunksY][CHUNK_SIZE];
+		masks = new byte[chunksX * chunksY][CHUNK_SIZE * CHUNK_SIZE / 2];
+		lookup = defaultLookup;
+
+		neighbors = new TileGrid[8];
+		frozen = false;
+		compressionStrategy = defaultCompressionStrategy;
+		fill(fill);
+	}
+
+	/* Shares all chunks of tileGrid, see copy() and snapshot(). */
+	TileGrid(final TileGrid tileGrid, final boolean frozen) {
+		tilesX = tileGrid.tilesX;
+		tilesY = tileGrid.tilesY;
+		chunksX = tileGrid.chunksX;
+		chunksY = tileGrid.chunksY;
+		chunkVersions = tileGrid.chunkVersions.clone();
+		version = tileGrid.version;
+		chunkFilled = tileGrid.chunkFilled.clone();
+		filled = tileGrid.filled;
+
+		tiles = tileGrid.tiles.clone();
+		masks = tileGrid.masks.clone();
+		lookup = tileGrid.lookup;
+		if (tileGrid.shared == null)
+			tileGrid.shared = new boolean[tiles.length];
+		for (int chunk = 0; chunk < tiles.length; chunk++)
+			tileGrid.shared[chunk] = (tiles[chunk] != null);
+		shared = tileGrid.shared.clone();
+
+		// Compressed chunks are never written to, only replaced.
+		if (tileGrid.compressed != null) {
+			compressed = tileGrid.compressed.clone();
+			coldTop = tileGrid.coldTop.clone();
+			coldEast = tileGrid.coldEast.clone();
+			hotPrevious = tileGrid.hotPrevious.clone();
+			hotNext = tileGrid.hotNext.clone();
+			hotHead = tileGrid.hotHead;
+			hotTail = tileGrid.hotTail;
+			hotCount = tileGrid.hotCount;
+			hotChunks = tileGrid.hotChunks;
+		}
+
+		neighbors = new TileGrid[8];
+		this.frozen = frozen;
+		compressionStrategy = tileGrid.compressionStrategy;
+		// The copy is not linked, so its edges no longer read across, whereas a snapshot keeps them as they were.
+		if (!frozen && tileGrid.isLinked())
+			updateEdgeMasks();
+	}
+
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	public int getChunksX() {
+		return chunksX;
+	}
+
+	public int getChunksY() {
+		return chunksY;
+	}
+
+	/* Incremented on every edit, see getChunkVersion(int, int) to find out which chunks changed since. */
+	public int getVersion() {
+		return version;
+	}
+
+	public int getChunkVersion(final int chunkX, final int chunkY) {
+		return chunkVersions[chunkX + chunkY * chunksX];
+	}
+
+	public int getFilledTiles() {
+		return filled;
+	}
+
+	public int getChunkFilled(final int chunkX, final int chunkY) {
+		return chunkFilled[chunkX + chunkY * chunksX];
+	}
+
+	public boolean isChunkEmpty(final int chunkX, final int chunkY) {
+		return chunkFilled[chunkX + chunkY * chunksX] == 0;
+	}
+
+	public boolean isChunkFull(final int chunkX, final int chunkY) {
+		final int chunk = chunkX + chunkY * chunksX;
+		return chunkFilled[chunk] == chunkArea(chunk);
+	}
+
+	/* The amount of filled tiles within [x1, x2) x [y1, y2), only counting the tiles of mixed chunks. */
+	public int countTiles(int x1, int y1, int x2, int y2) {
+		x1 = Math.max(0, x1);
+		y1 = Math.max(0, y1);
+		x2 = Math.min(tilesX, x2);
+		y2 = Math.min(tilesY, y2);
+		if (x1 >= x2 || y1 >= y2)
+			return 0;
+		int count = 0;
+		for (int chunkY = y1 >> CHUNK_SHIFT; chunkY <= (y2 - 1) >> CHUNK_SHIFT; chunkY++) {
+			final int rowFrom = Math.max(y1, chunkY << CHUNK_SHIFT);
+			final int rowTo = Math.min(y2, (chunkY + 1) << CHUNK_SHIFT);
+			for (int chunkX = x1 >> CHUNK_SHIFT; chunkX <= (x2 - 1) >> CHUNK_SHIFT; chunkX++) {
+				final int chunk = chunkX + chunkY * chunksX;
+				final int base = chunkX << CHUNK_SHIFT;
+				final int from = Math.max(x1 - base, 0);
+				final int to = Math.min(x2 - base, 64);
+				if (chunkFilled[chunk] == 0)
+					continue;
+				if (chunkFilled[chunk] == chunkArea(chunk)) {
+					count += (to - from) * (rowTo - rowFrom);
+					continue;
+				}
+				if (to - from == Math.min(CHUNK_SIZE, tilesX - base) && rowTo - rowFrom == Math.min(CHUNK_SIZE, tilesY - (chunkY << CHUNK_SHIFT))) {
+					count += chunkFilled[chunk];
+					continue;
+				}
+				final long mask = rangeMask(from, to);
+				final long[] rows = tileChunk(chunk);
+				for (int y = rowFrom; y < rowTo; y++)
+					count += Long.bitCount(rows[y & CHUNK_MASK] & mask);
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * An unlinked grid sharing all chunks with this one until either of them writes to a chunk, which then clones it.
+	 * Identical grids, e.g. many instances of the same map, thereby only take the memory of the chunks they changed.
+	 */
+	public TileGrid copy() {
+		return new TileGrid(this, false);
+	}
+
+	/*
+	 * A read-only copy of the current state, costing a copy of the chunk references rather than of the tiles.
+	 * Meant for saving on a background thread while this grid keeps being edited, e.g. write(snapshot(), outputStream).
+	 */
+	public TileGrid snapshot() {
+		return new TileGrid(this, true);
+	}
+
+	public boolean isSnapshot() {
+		return frozen;
+	}
+
+	void checkWritable() {
+		if (frozen)
+			throw new IllegalStateException("Tile grid snapshots are read-only");
+	}
+
+	public byte[] getAutoTileLookup() {
+		return lookup;
+	}
+
+	/* Maps each 4-bit neighbor mask to a tile-set index for this layer only, pass null to use the default again. */
+	public void setAutoTileLookup(final byte[] lookup) {
+		if (lookup == null) {
+			this.lookup = defaultLookup;
+			return;
+		}
+		if (lookup.length != 16)
+			throw new IllegalArgumentException("Expected 16 auto-tile indices, got " + lookup.length);
+		this.lookup = lookup.clone();
+	}
+
+	public ICompressionStrategy getCompressionStrategy() {
+		return compressionStrategy;
+	}
+
+	public void setCompressionStrategy(ICompressionStrategy compressionStrategy) {
+		// Cold chunks are re-encoded, as they can only be decompressed by the strategy which compressed them.
+		if (compressed != null) {
+			for (int chunk = 0; chunk < compressed.length; chunk++)
+				if (compressed[chunk] != null)
+					compressed[chunk] = compress(compressionStrategy, chunk, decompress(chunk));
+		}
+		this.compressionStrategy = compressionStrategy;
+	}
+
+	public int getHotChunks() {
+		return hotChunks;
+	}
+
+	/*
+	 * Whether several threads may read, or write disjoint chunks, at once. Reading a cold chunk expands it and may compress
+	 * another, modifying the grid, so only grids keeping every chunk expanded allow it.
+	 */
+	boolean allowsConcurrentAccess() {
+		return compressed == null;
+	}
+
+	/*
+	 * Keeps at most hotChunks chunks expanded, the least recently used ones beyond that being compressed
+	 * with the compression strategy until they are accessed again. 0 expands all chunks for good.
+	 * Should be at least the amount of chunks visible at once, rendering would otherwise compress what it has just expanded.
+	 * Chunks along the west and south edges always stay expanded, as their masks depend on more than their tiles after a fill.
+	 */
+	public void setHotChunks(final int hotChunks) {
+		if (hotChunks < 0)
+			throw new IllegalArgumentException("hotChunks must not be negative: " + hotChunks);
+		if (compressed != null) {
+			for (int chunk = 0; chunk < compressed.length; chunk++)
+				if (tiles[chunk] == null)
+					expand(chunk, new long[CHUNK_SIZE], new byte[CHUNK_SIZE * CHUNK_SIZE / 2]);
+		}
+		this.hotChunks = hotChunks;
+		if (hotChunks == 0) {
+			compressed = null;
+			coldTop = coldEast = null;
+			hotPrevious = hotNext = null;
+			return;
+		}
+
+		final int chunks = tiles.length;
+		compressed = new byte[chunks][];
+		coldTop = new long[chunks];
+		coldEast = new long[chunks];
+		hotPrevious = new int[chunks];
+		hotNext = new int[chunks];
+		hotHead = hotTail = -1;
+		hotCount = 0;
+		for (int chunk = chunks - 1; chunk >= 0; chunk--)
+			if (!isPinned(chunk))
+				pushHot(chunk);
+		while (hotCount > hotChunks)
+			compress(hotTail);
+	}
+
+	/* The amount of chunks currently expanded. */
+	public int getExpandedChunks() {
+		return (compressed == null) ? tiles.length : hotCount + chunksX + chunksY - 1;
+	}
+
+	/* The amount of bytes held by compressed chunks. */
+	public long getCompressedBytes() {
+		if (compressed == null)
+			return 0L;
+		long bytes = 0L;
+		for (final byte[] chunk : compressed)
+			if (chunk != null)
+				bytes += chunk.length;
+		return bytes;
+	}
+
+	public void fill(boolean state) {
+		checkWritable();
+		final long[] uniform = new long[CHUNK_SIZE];
+		for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+			final int rows = Math.min(CHUNK_SIZE, tilesY - (chunkY << CHUNK_SHIFT));
+			for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+				final int index = chunkX + chunkY * chunksX;
+				final long[] chunk = tiles[index];
+				chunkFilled[index] = state ? chunkArea(index) : 0;
+				if (chunk == null) {
+					Arrays.fill(uniform, 0, rows, state ? validMask(chunkX) : 0L);
+					compressed[index] = compress(compressionStrategy, index, uniform);
+					coldTop[index] = uniform[rows - 1];
+					coldEast[index] = state ? rangeMask(0, rows) : 0L;
+					continue;
+				}
+				if (shared != null && shared[index]) {
+					tiles[index] = new long[CHUNK_SIZE];
+					masks[index] = new byte[CHUNK_SIZE * CHUNK_SIZE / 2];
+					shared[index] = false;
+				}
+				Arrays.fill(tiles[index], 0L);
+				if (state)
+					Arrays.fill(tiles[index], 0, rows, validMask(chunkX));
+			}
+		}
+		final byte pair = (byte) (state ? 0xFF : 0x00);
+		for (final byte[] chunk : masks)
+			if (chunk != null)
+				Arrays.fill(chunk, pair);
+		filled = state ? tilesX * tilesY : 0;
+		markChunks(0, 0, tilesX, tilesY);
+
+		// The edges of a stitched layer depend on its neighbors, as do the neighbors' edges on this layer.
+		if (isLinked()) {
+			updateMasks(0, 0, 1, tilesY);
+			updateMasks(0, 0, tilesX, 1);
+			updateMasks(tilesX, 0, tilesX + 1, tilesY + 1);
+			updateMasks(0, tilesY, tilesX + 1, tilesY + 1);
+		}
+	}
+
+	public TileGrid getNeighbor(final Neighbor neighbor) {
+		return neighbors[neighbor.ordinal()];
+	}
+
+	public boolean isLinked() {
+		for (final TileGrid neighbor : neighbors)
+			if (neighbor != null)
+				return true;
+		return false;
+	}
+
+	/*
+	 * Stitches another layer to this one, so that the auto-tiling of both reads across the shared edge.
+	 * Layers sharing a horizontal edge need the same width, layers sharing a vertical edge the same height.
+	 */
+	public void link(final Neighbor neighbor, final TileGrid tileGrid) {
+		checkWritable();
+		tileGrid.checkWritable();
+		if (tileGrid == this)
+			throw new IllegalArgumentException("Tile layer can not be linked to itself");
+		if (neighbor.dx == 0 && tileGrid.tilesX != tilesX)
+			throw new IllegalArgumentException("Tile layers linked " + neighbor + " must have the same width");
+		if (neighbor.dy == 0 && tileGrid.tilesY != tilesY)
+			throw new IllegalArgumentException("Tile layers linked " + neighbor + " must have the same height");
+		unlink(neighbor);
+		tileGrid.unlink(neighbor.opposite());
+		neighbors[neighbor.ordinal()] = tileGrid;
+		tileGrid.neighbors[neighbor.opposite().ordinal()] = this;
+		updateEdgeMasks();
+		tileGrid.updateEdgeMasks();
+	}
+
+	public void unlink(final Neighbor neighbor) {
+		final TileGrid tileGrid = neighbors[neighbor.ordinal()];
+		if (tileGrid == null)
+			return;
+		neighbors[neighbor.ordinal()] = null;
+		tileGrid.neighbors[neighbor.opposite().ordinal()] = null;
+		updateEdgeMasks();
+		tileGrid.updateEdgeMasks();
+	}
+
+	public void unlinkAll() {
+		for (final Neighbor neighbor : Neighbor.values())
+			unlink(neighbor);
+	}
+
+	/* Only the first column and row read outside of the layer. */
+	private void updateEdgeMasks() {
+		updateMasks(0, 0, 1, tilesY);
+		updateMasks(0, 0, tilesX, 1);
+	}
+
+	public boolean isOutOfBounds(final int x, final int y) {
+		return (x < 0 || y < 0 || x >= tilesX || y >= tilesY);
+	}
+
+	public boolean tileAt(final int x, final int y) {
+		if (isOutOfBounds(x, y))
+			return false;
+		return isSet(x, y);
+	}
+
+	public void tileAt(final int x, final int y, final boolean state) {
+		if (isOutOfBounds(x, y))
+			return;
+		final int index = chunkIndex(x, y);
+		final long[] chunk = writableChunk(index);
+		final int row = y & CHUNK_MASK;
+		final long bit = 1L << (x & CHUNK_MASK);
+		final boolean changed = ((chunk[row] & bit) != 0) != state;
+		setWord(chunk, index, row, state ? chunk[row] | bit : chunk[row] & ~bit);
+		if (changed)
+			markChunks(x, y, x + 1, y + 1);
+		updateMasks(x, y, x + 2, y + 2);
+	}
+
+	/* Scanline flood fill over 4-connected tiles, returns the amount of tiles changed. */
+	public int floodFill(final int x, final int y, final boolean state) {
+		if (isOutOfBounds(x, y) || isSet(x, y) == state)
+			return 0;
+		if (spanStack == null)
+			spanStack = new IntArray(64);
+
+		final IntArray stack = spanStack;
+		stack.clear();
+		stack.add(x);
+		stack.add(y);
+
+		int filled = 0;
+		int minX = x, minY = y, maxX = x, maxY = y;
+		while (stack.size > 0) {
+			final int sY = stack.pop();
+			final int sX = stack.pop();
+			if (isSet(sX, sY) == state)
+				continue;
+
+			final int x1 = spanStart(sX, sY, state);
+			final int x2 = spanEnd(sX, sY, state);
+			setTiles(x1, x2, sY, state);
+			filled += x2 - x1;
+			minX = Math.min(minX, x1);
+			maxX = Math.max(maxX, x2 - 1);
+			minY = Math.min(minY, sY);
+			maxY = Math.max(maxY, sY);
+
+			if (sY > 0)
+				pushSpans(stack, x1, x2, sY - 1, state);
+			if (sY < tilesY - 1)
+				pushSpans(stack, x1, x2, sY + 1, state);
+		}
+
+		markChunks(minX, minY, maxX + 1, maxY + 1);
+		updateMasks(minX, minY, maxX + 2, maxY + 2);
+		return filled;
+	}
+
+	/* Bits of the tiles in row y differing from state. */
+	private long targetWord(final int wordX, final int y, final boolean state) {
+		final long word = tileWord(wordX, y);
+		return (state ? ~word : word) & validMask(wordX);
+	}
+
+	/* First tile of the run differing from state through x. */
+	private int spanStart(final int x, final int y, final boolean state) {
+		int wordX = x >> CHUNK_SHIFT;
+		int bit = x & CHUNK_MASK;
+		long target = targetWord(wordX, y, state) << (63 - bit);
+		int start = x + 1;
+		while (true) {
+			final int run = Long.numberOfLeadingZeros(~target);
+			start -= run;
+			if (run < bit + 1 || --wordX < 0)
+				return start;
+			bit = 63;
+			target = targetWord(wordX, y, state);
+		}
+	}
+
+	/* Exclusive end of the run differing from state through x. */
+	private int spanEnd(final int x, final int y, final boolean state) {
+		int wordX = x >> CHUNK_SHIFT;
+		int bit = x & CHUNK_MASK;
+		long target = targetWord(wordX, y, state) >>> bit;
+		int end = x;
+		while (true) {
+			final int run = Long.numberOfTrailingZeros(~target);
+			end += run;
+			if (run < 64 - bit || ++wordX >= chunksX)
+				return end;
+			bit = 0;
+			target = targetWord(wordX, y, state);
+		}
+	}
+
+	/* Pushes one seed per run differing from state within [x1, x2) of row y. */
+	private void pushSpans(final IntArray stack, final int x1, final int x2, final int y, final boolean state) {
+		for (int wordX = x1 >> CHUNK_SHIFT; wordX <= (x2 - 1) >> CHUNK_SHIFT; wordX++) {
+			final int base = wordX << CHUNK_SHIFT;
+			long target = targetWord(wordX, y, state) & rangeMask(Math.max(x1 - base, 0), Math.min(x2 - base, 64));
+			while (target != 0) {
+				stack.add(base + Long.numberOfTrailingZeros(target));
+				stack.add(y);
+				target &= target + (target & -target);
+			}
+		}
+	}
+
+	/* Combines all of source, placed with its origin at (x, y), into this grid, see blit. */
+	public int combine(final Operation operation, final TileGrid source, final int x, final int y) {
+		return blit(operation, source, 0, 0, source.tilesX, source.tilesY, x, y);
+	}
+
+	public int paste(final TileGrid source, final int x, final int y) {
+		return combine(Operation.REPLACE, source, x, y);
+	}
+
+	/* A new grid holding the tiles [x, x + width) x [y, y + height) of this one. */
+	public TileGrid copyRegion(final int x, final int y, final int width, final int height) {
+		final TileGrid region = new TileGrid(width, height, false);
+		region.blit(Operation.REPLACE, this, x, y, width, height, 0, 0);
+		return region;
+	}
+
+	/*
+	 * Combines the tiles [sourceX, sourceX + width) x [sourceY, sourceY + height) of source into this grid at (x, y),
+	 * 64 tiles at a time, followed by a single auto-tile pass. Tiles outside either grid are left alone.
+	 * Returns the amount of tiles changed.
+	 */
+	public int blit(final Operation operation, TileGrid source, final int sourceX, final int sourceY, final int width, final int height, final int x, final int y) {
+		final int x1 = Math.max(Math.max(x, 0), x - sourceX);
+		final int y1 = Math.max(Math.max(y, 0), y - sourceY);
+		final int x2 = Math.min(Math.min(x + width, tilesX), x - sourceX + source.tilesX);
+		final int y2 = Math.min(Math.min(y + height, tilesY), y - sourceY + source.tilesY);
+		if (x1 >= x2 || y1 >= y2)
+			return 0;
+		// Overlapping regions of the same grid would otherwise read tiles that were already written.
+		if (source == this)
+			source = snapshot();
+
+		int changed = 0;
+		for (int row = y1; row < y2; row++) {
+			for (int wordX = x1 >> CHUNK_SHIFT; wordX <= (x2 - 1) >> CHUNK_SHIFT; wordX++) {
+				final int base = wordX << CHUNK_SHIFT;
+				final long mask = rangeMask(Math.max(x1 - base, 0), Math.min(x2 - base, 64));
+				final long bits = source.bitsAt(base - x + sourceX, row - y + sourceY);
+				final int index = wordX + (row >> CHUNK_SHIFT) * chunksX;
+				final long[] chunk = writableChunk(index);
+				final long word = chunk[row & CHUNK_MASK];
+				final long result = (word & ~mask) | (operation.apply(word, bits) & mask);
+				changed += Long.bitCount(word ^ result);
+				setWord(chunk, index, row & CHUNK_MASK, result);
+			}
+		}
+		if (changed > 0) {
+			markChunks(x1, y1, x2, y2);
+			updateMasks(x1, y1, x2 + 1, y2 + 1);
+		}
+		return changed;
+	}
+
+	public TileComponents labelComponents() {
+		return labelComponents(new TileComponents());
+	}
+
+	/* Re-use the same components instance to avoid allocating on every call. */
+	public TileComponents labelComponents(final TileComponents components) {
+		components.label(this);
+		return components;
+	}
+
+	/*
+	 * Walks the tiles along a ray from (x, y) in tile units, tile (x, y) covering [x, x + 1) x [y, y + 1), and reports
+	 * the first filled one within maxDistance (Amanatides-Woo). Distances are multiples of the direction, which
+	 * needn't be normalized. The hit may be null if only the outcome matters.
+	 */
+	public boolean raycast(final float x, final float y, final float directionX, final float directionY, final float maxDistance, final RaycastHit hit) {
+		// Clipped to the grid first, so that rays starting outside of it don't walk towards it tile by tile.
+		double enter = 0.0;
+		double exit = maxDistance;
+		int normalX = 0, normalY = 0;
+		if (directionX != 0f) {
+			final double t1 = -x / (double) directionX;
+			final double t2 = (tilesX - x) / (double) directionX;
+			if (Math.min(t1, t2) > enter) {
+				enter = Math.min(t1, t2);
+				normalX = (directionX > 0f) ? -1 : 1;
+			}
+			exit = Math.min(exit, Math.max(t1, t2));
+		} else if (x < 0f || x >= tilesX) {
+			return false;
+		}
+		if (directionY != 0f) {
+			final double t1 = -y / (double) directionY;
+			final double t2 = (tilesY - y) / (double) directionY;
+			if (Math.min(t1, t2) > enter) {
+				enter = Math.min(t1, t2);
+				normalX = 0;
+				normalY = (directionY > 0f) ? -1 : 1;
+			}
+			exit = Math.min(exit, Math.max(t1, t2));
+		} else if (y < 0f || y >= tilesY) {
+			return false;
+		}
+		if (enter > exit)
+			return false;
+
+		int tileX = Math.min(tilesX - 1, Math.max(0, (int) Math.floor(x + directionX * enter)));
+		int tileY = Math.min(tilesY - 1, Math.max(0, (int) Math.floor(y + directionY * enter)));
+		final int stepX = (directionX > 0f) ? 1 : (directionX < 0f) ? -1 : 0;
+		final int stepY = (directionY > 0f) ? 1 : (directionY < 0f) ? -1 : 0;
+		final double deltaX = (stepX != 0) ? Math.abs(1.0 / directionX) : Double.POSITIVE_INFINITY;
+		final double deltaY = (stepY != 0) ? Math.abs(1.0 / directionY) : Double.POSITIVE_INFINITY;
+		double nextX = (stepX != 0) ? (tileX + (stepX > 0 ? 1 : 0) - x) / (double) directionX : Double.POSITIVE_INFINITY;
+		double nextY = (stepY != 0) ? (tileY + (stepY > 0 ? 1 : 0) - y) / (double) directionY : Double.POSITIVE_INFINITY;
+		double distance = enter;
+		while (true) {
+			if (isSet(tileX, tileY)) {
+				if (hit != null)
+					hit.set(tileX, tileY, (float) distance, (float) (x + directionX * distance), (float) (y + directionY * distance), normalX, normalY);
+				return true;
+			}
+			if (nextX < nextY) {
+				distance = nextX;
+				nextX += deltaX;
+				tileX += stepX;
+				normalX = -stepX;
+				normalY = 0;
+			} else {
+				distance = nextY;
+				nextY += deltaY;
+				tileY += stepY;
+				normalX = 0;
+				normalY = -stepY;
+			}
+			if (distance > exit || tileX < 0 || tileY < 0 || tileX >= tilesX || tileY >= tilesY)
+				return false;
+		}
+	}
+
+	/* Whether no filled tile lies between both points in tile units, including the tiles of both points. */
+	public boolean lineOfSight(final float x1, final float y1, final float x2, final float y2) {
+		return !raycast(x1, y1, x2 - x1, y2 - y1, 1f, null);
+	}
+
+	/*
+	 * Answers results.length line-of-sight queries at once, segments holding x1, y1, x2 and y2 of each in tile units.
+	 * Queries are spread across the common fork-join pool, unless chunks may be compressed, see setHotChunks(int).
+	 */
+	public void lineOfSight(final float[] segments, final boolean[] results) {
+		lineOfSight(segments, results, 0f, 0f, 1f, 1f);
+	}
+
+	/* Segments in units of (sizeX, sizeY) tiles, the origin of tile (0, 0) being at (originX, originY). */
+	void lineOfSight(final float[] segments, final boolean[] results, final float originX, final float originY, final float sizeX, final float sizeY) {
+		if (segments.length < results.length * 4)
+			throw new IllegalArgumentException("Expected 4 coordinates per result, got " + segments.length + " for " + results.length);
+		if (allowsConcurrentAccess())
+			ForkJoinPool.commonPool().invoke(new LineOfSightTask(this, segments, results, 0, results.length, originX, originY, sizeX, sizeY));
+		else
+			lineOfSight(segments, results, 0, results.length, originX, originY, sizeX, sizeY);
+	}
+
+	private void lineOfSight(final float[] segments, final boolean[] results, final int from, final int to, final float originX, final float originY, final float sizeX, final float sizeY) {
+		for (int i = from; i < to; i++) {
+			final int segment = i * 4;
+			results[i] = lineOfSight(
+				(segments[segment] - originX) / sizeX,
+				(segments[segment + 1] - originY) / sizeY,
+				(segments[segment + 2] - originX) / sizeX,
+				(segments[segment + 3] - originY) / sizeY
+			);
+		}
+	}
+
+	/* Stamps the chunks overlapping the tiles [x1, x2) x [y1, y2) with a new version, after their tiles were written. */
+	void markChunks(final int x1, final int y1, final int x2, final int y2) {
+		version++;
+		final int chunkX2 = (Math.min(tilesX, x2) - 1) >> CHUNK_SHIFT;
+		final int chunkY2 = (Math.min(tilesY, y2) - 1) >> CHUNK_SHIFT;
+		for (int chunkY = Math.max(0, y1) >> CHUNK_SHIFT; chunkY <= chunkY2; chunkY++)
+			for (int chunkX = Math.max(0, x1) >> CHUNK_SHIFT; chunkX <= chunkX2; chunkX++)
+				chunkVersions[chunkX + chunkY * chunksX] = version;
+		tilesChanged(x1, y1, x2, y2);
+	}
+
+	/* Called once the tiles [x1, x2) x [y1, y2) were edited, or the tiles of the flagged chunks. */
+	void tilesChanged(final int x1, final int y1, final int x2, final int y2) {}
+
+	void chunksChanged(final boolean[] changed) {}
+
+	/*
+	 * Stamps the flagged chunks with one new version and re-computes the masks of their cells and of the cells east and north
+	 * of them. Chunks are updated in parallel, unless cold chunks rule out concurrent readers.
+	 */
+	void updateChunks(final boolean[] changed) {
+		version++;
+		for (int chunk = 0; chunk < changed.length; chunk++)
+			if (changed[chunk])
+				chunkVersions[chunk] = version;
+		if (allowsConcurrentAccess())
+			ForkJoinPool.commonPool().invoke(new MaskTask(this, changed, 0, chunksY));
+		else
+			updateChunkMasks(changed, 0, chunksY);
+		// Cells past the east and north edges belong to linked neighbors, which updateMasks hands them to.
+		for (int chunkY = 0; chunkY < chunksY; chunkY++)
+			if (changed[chunksX - 1 + chunkY * chunksX])
+				updateMasks(tilesX, chunkY << CHUNK_SHIFT, tilesX + 1, Math.min(tilesY, (chunkY + 1) << CHUNK_SHIFT) + 1);
+		for (int chunkX = 0; chunkX < chunksX; chunkX++)
+			if (changed[chunkX + (chunksY - 1) * chunksX])
+				updateMasks(chunkX << CHUNK_SHIFT, tilesY, Math.min(tilesX, (chunkX + 1) << CHUNK_SHIFT) + 1, tilesY + 1);
+		chunksChanged(changed);
+	}
+
+	/* Masks of the chunk rows [from, to), a chunk's masks only depending on its own tiles and those of its west and south neighbors. */
+	private void updateChunkMasks(final boolean[] changed, final int from, final int to) {
+		for (int chunkY = from; chunkY < to; chunkY++) {
+			for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+				final int chunk = chunkX + chunkY * chunksX;
+				final int x1 = chunkX << CHUNK_SHIFT, y1 = chunkY << CHUNK_SHIFT;
+				final int x2 = Math.min(tilesX, x1 + CHUNK_SIZE), y2 = Math.min(tilesY, y1 + CHUNK_SIZE);
+				if (changed[chunk]) {
+					updateMasks(x1, y1, x2, y2);
+					continue;
+				}
+				if (chunkX > 0 && changed[chunk - 1])
+					updateMasks(x1, y1, x1 + 1, y2);
+				if (chunkY > 0 && changed[chunk - chunksX])
+					updateMasks(x1, y1, x2, y1 + 1);
+				if (chunkX > 0 && chunkY > 0 && changed[chunk - chunksX - 1])
+					updateMasks(x1, y1, x1 + 1, y1 + 1);
+			}
+		}
+	}
+
+	int chunkIndex(final int x, final int y) {
+		return (x >> CHUNK_SHIFT) + (y >> CHUNK_SHIFT) * chunksX;
+	}
+
+	/* The rows of a chunk, expanding it if cold. Only valid until the next chunk is accessed, which may compress this one. */
+	long[] tileChunk(final int chunk) {
+		final long[] rows = tiles[chunk];
+		if (rows == null)
+			return expand(chunk);
+		if (compressed != null && chunk != hotHead && !isPinned(chunk))
+			pushHot(removeHot(chunk));
+		return rows;
+	}
+
+	/* Like tileChunk, but clones the chunk first if a copy shares it. */
+	long[] writableChunk(final int chunk) {
+		checkWritable();
+		final long[] rows = tileChunk(chunk);
+		if (shared == null || !shared[chunk])
+			return rows;
+		unshare(chunk);
+		return tiles[chunk];
+	}
+
+	/* The masks of a chunk to write to, null for a cold chunk. */
+	private byte[] writableMasks(final int chunk) {
+		if (shared != null && shared[chunk])
+			unshare(chunk);
+		return masks[chunk];
+	}
+
+	private void unshare(final int chunk) {
+		tiles[chunk] = tiles[chunk].clone();
+		masks[chunk] = masks[chunk].clone();
+		shared[chunk] = false;
+	}
+
+	byte[] maskChunk(final int chunk) {
+		final byte[] cells = masks[chunk];
+		if (cells == null) {
+			expand(chunk);
+			return masks[chunk];
+		}
+		if (compressed != null && chunk != hotHead && !isPinned(chunk))
+			pushHot(removeHot(chunk));
+		return cells;
+	}
+
+	private long[] expand(final int chunk) {
+		if (hotCount < hotChunks)
+			return expand(chunk, new long[CHUNK_SIZE], new byte[CHUNK_SIZE * CHUNK_SIZE / 2]);
+		// The least recently used chunk hands its arrays over, unless a copy still uses them.
+		final int evicted = hotTail;
+		final boolean reuse = (shared == null || !shared[evicted]);
+		final long[] rows = reuse ? tiles[evicted] : new long[CHUNK_SIZE];
+		final byte[] cells = reuse ? masks[evicted] : new byte[CHUNK_SIZE * CHUNK_SIZE / 2];
+		compress(evicted);
+		return expand(chunk, rows, cells);
+	}
+
+	private long[] expand(final int chunk, final long[] rows, final byte[] cells) {
+		final long[] decompressed = decompress(chunk);
+		System.arraycopy(decompressed, 0, rows, 0, CHUNK_SIZE);
+		tiles[chunk] = rows;
+		masks[chunk] = cells;
+		compressed[chunk] = null;
+		pushHot(chunk);
+
+		final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+		final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+		updateMasks(x1, y1, Math.min(tilesX, x1 + CHUNK_SIZE), Math.min(tilesY, y1 + CHUNK_SIZE));
+		return rows;
+	}
+
+	private void compress(final int chunk) {
+		final long[] rows = tiles[chunk];
+		final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+		final int height = Math.min(CHUNK_SIZE, tilesY - ((chunk / chunksX) << CHUNK_SHIFT));
+		final int east = Math.min(CHUNK_SIZE, tilesX - x1) - 1;
+		long column = 0L;
+		for (int row = 0; row < height; row++)
+			column |= ((rows[row] >>> east) & 1L) << row;
+		compressed[chunk] = compress(compressionStrategy, chunk, rows);
+		coldTop[chunk] = rows[height - 1];
+		coldEast[chunk] = column;
+		tiles[chunk] = null;
+		masks[chunk] = null;
+		if (shared != null)
+			shared[chunk] = false;
+		removeHot(chunk);
+	}
+
+	private byte[] compress(final ICompressionStrategy compressionStrategy, final int chunk, final long[] rows) {
+		final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+		final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+		final int width = Math.min(CHUNK_SIZE, tilesX - x1);
+		final int height = Math.min(CHUNK_SIZE, tilesY - y1);
+		final boolean[][] array = new boolean[width][height];
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				array[x][y] = (rows[y] & (1L << x)) != 0;
+		try {
+			return compressionStrategy.compress(array, width, height);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to compress chunk " + chunk + ".", e);
+		}
+	}
+
+	private long[] decompress(final int chunk) {
+		final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+		final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+		final int width = Math.min(CHUNK_SIZE, tilesX - x1);
+		final int height = Math.min(CHUNK_SIZE, tilesY - y1);
+		final boolean[][] array;
+		try {
+			array = compressionStrategy.decompress(compressed[chunk], width, height);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to decompress chunk " + chunk + ".", e);
+		}
+		final long[] rows = new long[CHUNK_SIZE];
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (array[x][y])
+					rows[y] |= 1L << x;
+		return rows;
+	}
+
+	private boolean isPinned(final int chunk) {
+		return chunk < chunksX || chunk % chunksX == 0;
+	}
+
+	/* The hot chunks form a doubly linked list from the most recently used one at its head. */
+	private void pushHot(final int chunk) {
+		hotPrevious[chunk] = -1;
+		hotNext[chunk] = hotHead;
+		if (hotHead != -1)
+			hotPrevious[hotHead] = chunk;
+		else
+			hotTail = chunk;
+		hotHead = chunk;
+		hotCount++;
+	}
+
+	private int removeHot(final int chunk) {
+		final int previous = hotPrevious[chunk];
+		final int next = hotNext[chunk];
+		if (previous != -1)
+			hotNext[previous] = next;
+		else
+			hotHead = next;
+		if (next != -1)
+			hotPrevious[next] = previous;
+		else
+			hotTail = previous;
+		hotCount--;
+		return chunk;
+	}
+
+	/* Unchecked, see tileAt(int, int). */
+	boolean isSet(final int x, final int y) {
+		return (tileChunk(chunkIndex(x, y))[y & CHUNK_MASK] & (1L << (x & CHUNK_MASK))) != 0;
+	}
+
+	/* Unchecked 4-bit neighbor mask of a dual-grid cell. */
+	int maskAt(final int x, final int y) {
+		final int cell = ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+		return (maskChunk(chunkIndex(x, y))[cell >> 1] >> ((cell & 1) << 2)) & 0xF;
+	}
+
+	/* Unchecked auto-tile index of a dual-grid cell. */
+	byte indexAt(final int x, final int y) {
+		return lookup[maskAt(x, y)];
+	}
+
+	/* Bits of the tiles [wordX * 64, wordX * 64 + 64) in row y, tiles out of bounds being empty. */
+	long tileWord(final int wordX, final int y) {
+		if (wordX < 0 || y < 0 || wordX >= chunksX || y >= tilesY)
+			return 0L;
+		return tileChunk(wordX + (y >> CHUNK_SHIFT) * chunksX)[y & CHUNK_MASK];
+	}
+
+	/*
+	 * Like tileWord, but without expanding a cold chunk, of which only the top row and the last column are known.
+	 * Enough for updating masks, which only look at the row below and the last tile of the word to the west.
+	 */
+	private long peekWord(final int wordX, final int y) {
+		if (wordX < 0 || y < 0 || wordX >= chunksX || y >= tilesY)
+			return 0L;
+		final int chunk = wordX + (y >> CHUNK_SHIFT) * chunksX;
+		final int row = y & CHUNK_MASK;
+		if (tiles[chunk] != null)
+			return tiles[chunk][row];
+		if (row == Math.min(CHUNK_SIZE, tilesY - (y & ~CHUNK_MASK)) - 1)
+			return coldTop[chunk];
+		return ((coldEast[chunk] >>> row) & 1L) << (Math.min(64, tilesX - (wordX << CHUNK_SHIFT)) - 1);
+	}
+
+	/* Like peekWord, but reads the linked neighbors west and south of the layer, of which only bit 63 of a west word is set. */
+	private long stitchedWord(final int wordX, final int y) {
+		if (wordX >= 0 && y >= 0)
+			return peekWord(wordX, y);
+		final TileGrid neighbor;
+		if (wordX < 0)
+			neighbor = neighbors[(y < 0 ? Neighbor.SOUTH_WEST : Neighbor.WEST).ordinal()];
+		else
+			neighbor = neighbors[Neighbor.SOUTH.ordinal()];
+		if (neighbor == null)
+			return 0L;
+		final int neighborY = (y < 0) ? neighbor.tilesY + y : y;
+		if (wordX < 0)
+			return ((neighbor.peekWord(neighbor.chunksX - 1, neighborY) >>> ((neighbor.tilesX - 1) & CHUNK_MASK)) & 1L) << 63;
+		return neighbor.peekWord(wordX, neighborY);
+	}
+
+	/* The tiles [x, x + 64) of row y at any alignment, tiles out of bounds being empty. */
+	long bitsAt(final int x, final int y) {
+		final int wordX = x >> CHUNK_SHIFT;
+		final int shift = x & CHUNK_MASK;
+		if (shift == 0)
+			return tileWord(wordX, y);
+		return (tileWord(wordX, y) >>> shift) | (tileWord(wordX + 1, y) << (64 - shift));
+	}
+
+	/* Bits of a word that lie within the layer. */
+	long validMask(final int wordX) {
+		return rangeMask(0, Math.min(64, tilesX - (wordX << CHUNK_SHIFT)));
+	}
+
+	/* Writes a row word of a writable chunk, keeping the filled counts. */
+	void setWord(final long[] rows, final int chunk, final int row, final long word) {
+		final int change = Long.bitCount(word) - Long.bitCount(rows[row]);
+		chunkFilled[chunk] += change;
+		filled += change;
+		rows[row] = word;
+	}
+
+	/* Replaces the rows of a chunk without touching masks or versions, and may run concurrently for different chunks. */
+	void setChunk(final int chunk, final long[] rows) {
+		final long[] target = writableChunk(chunk);
+		int count = 0;
+		for (int row = 0; row < CHUNK_SIZE; row++) {
+			target[row] = rows[row];
+			count += Long.bitCount(rows[row]);
+		}
+		chunkFilled[chunk] = count;
+	}
+
+	/* Like setChunk, reading the first rows words from the buffer and clearing the rest. */
+	void setChunk(final int chunk, final ByteBuffer buffer, final int rows) {
+		final long[] target = writableChunk(chunk);
+		final long valid = validMask(chunk % chunksX);
+		int count = 0;
+		for (int row = 0; row < CHUNK_SIZE; row++) {
+			target[row] = (row < rows) ? buffer.getLong() & valid : 0L;
+			count += Long.bitCount(target[row]);
+		}
+		chunkFilled[chunk] = count;
+	}
+
+	/* Like setChunk, filling or clearing the whole chunk. */
+	void setChunk(final int chunk, final boolean state) {
+		final long[] target = writableChunk(chunk);
+		final int rows = Math.min(CHUNK_SIZE, tilesY - ((chunk / chunksX) << CHUNK_SHIFT));
+		Arrays.fill(target, 0L);
+		if (state)
+			Arrays.fill(target, 0, rows, validMask(chunk % chunksX));
+		chunkFilled[chunk] = state ? chunkArea(chunk) : 0;
+	}
+
+	/* Sums the filled tiles of all chunks after setChunk. */
+	void countFilled() {
+		filled = 0;
+		for (final int count : chunkFilled)
+			filled += count;
+	}
+
+	int chunkArea(final int chunk) {
+		return Math.min(CHUNK_SIZE, tilesX - ((chunk % chunksX) << CHUNK_SHIFT)) * Math.min(CHUNK_SIZE, tilesY - ((chunk / chunksX) << CHUNK_SHIFT));
+	}
+
+	/* Sets the tiles [x1, x2) of row y without touching masks or versions. */
+	void setTiles(final int x1, final int x2, final int y, final boolean state) {
+		for (int wordX = x1 >> CHUNK_SHIFT; wordX <= (x2 - 1) >> CHUNK_SHIFT; wordX++) {
+			final int base = wordX << CHUNK_SHIFT;
+			final long mask = rangeMask(Math.max(x1 - base, 0), Math.min(x2 - base, 64));
+			final int index = wordX + (y >> CHUNK_SHIFT) * chunksX;
+			final long[] chunk = writableChunk(index);
+			final long word = chunk[y & CHUNK_MASK];
+			setWord(chunk, index, y & CHUNK_MASK, state ? word | mask : word & ~mask);
+		}
+	}
+
+	/* Replaces all tiles at once, re-computing the masks in a single pass. */
+	void setTiles(final boolean[][] tiles) {
+		// Chunk by chunk, so that no more chunks than the hot ones are expanded at a time.
+		for (int chunk = 0; chunk < this.tiles.length; chunk++) {
+			final long[] rows = writableChunk(chunk);
+			final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+			final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+			for (int y = y1; y < Math.min(tilesY, y1 + CHUNK_SIZE); y++) {
+				long word = 0L;
+				for (int x = x1; x < Math.min(tilesX, x1 + CHUNK_SIZE); x++)
+					if (tiles[x][y])
+						word |= 1L << (x & CHUNK_MASK);
+				setWord(rows, chunk, y & CHUNK_MASK, word);
+			}
+		}
+		markChunks(0, 0, tilesX, tilesY);
+		updateMasks(0, 0, tilesX + 1, tilesY + 1);
+	}
+
+	boolean[][] toArray() {
+		final boolean[][] array = new boolean[tilesX][tilesY];
+		// Chunk by chunk, so that each cold chunk is expanded once rather than once per column.
+		for (int chunk = 0; chunk < tiles.length; chunk++) {
+			final long[] rows = tileChunk(chunk);
+			final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+			final int y1 = (chunk / chunksX) << CHUNK_SHIFT;
+			for (int y = y1; y < Math.min(tilesY, y1 + CHUNK_SIZE); y++) {
+				final long word = rows[y & CHUNK_MASK];
+				if (word == 0L)
+					continue;
+				for (int x = x1; x < Math.min(tilesX, x1 + CHUNK_SIZE); x++)
+					array[x][y] = (word & (1L << (x & CHUNK_MASK))) != 0;
+			}
+		}
+		return array;
+	}
+
+	/*
+	 * Recomputes the neighbor masks within [x1, x2) x [y1, y2), 64 tiles at a time.
+	 * For a dual-grid cell at bit i, its four corners are bit i of the row word, the row word shifted west by one,
+	 * and the same two for the row below. Uniformly empty or full words skip the per-tile packing entirely.
+	 */
+	void updateMasks(int x1, int y1, int x2, int y2) {
+		// Cells past the east and north edges belong to the first column and row of the neighbors there.
+		if (x2 > tilesX && neighbors[Neighbor.EAST.ordinal()] != null)
+			neighbors[Neighbor.EAST.ordinal()].updateMasks(0, y1, x2 - tilesX, y2);
+		if (y2 > tilesY && neighbors[Neighbor.NORTH.ordinal()] != null)
+			neighbors[Neighbor.NORTH.ordinal()].updateMasks(x1, 0, x2, y2 - tilesY);
+		if (x2 > tilesX && y2 > tilesY && neighbors[Neighbor.NORTH_EAST.ordinal()] != null)
+			neighbors[Neighbor.NORTH_EAST.ordinal()].updateMasks(0, 0, x2 - tilesX, y2 - tilesY);
+
+		x1 = Math.max(0, x1);
+		y1 = Math.max(0, y1);
+		x2 = Math.min(tilesX, x2);
+		y2 = Math.min(tilesY, y2);
+		if (x1 >= x2 || y1 >= y2)
+			return;
+
+		final int wordX1 = x1 >> CHUNK_SHIFT;
+		final int wordX2 = (x2 - 1) >> CHUNK_SHIFT;
+		for (int y = y1; y < y2; y++) {
+			final int row = (y & CHUNK_MASK) << CHUNK_SHIFT;
+			long westRow = stitchedWord(wordX1 - 1, y);
+			long westBelow = stitchedWord(wordX1 - 1, y - 1);
+			for (int wordX = wordX1; wordX <= wordX2; wordX++) {
+				final byte[] chunk = writableMasks(wordX + (y >> CHUNK_SHIFT) * chunksX);
+				if (chunk == null) {
+					// Masks of cold chunks are re-computed once they are expanded.
+					westRow = peekWord(wordX, y);
+					westBelow = stitchedWord(wordX, y - 1);
+					continue;
+				}
+				final long current = tiles[wordX + (y >> CHUNK_SHIFT) * chunksX][y & CHUNK_MASK];
+				final long below = stitchedWord(wordX, y - 1);
+				final long west = (current << 1) | (westRow >>> 63);
+				final long southWest = (below << 1) | (westBelow >>> 63);
+				westRow = current;
+				westBelow = below;
+
+				final int base = wordX << CHUNK_SHIFT;
+				final int from = Math.max(x1 - base, 0);
+				final int to = Math.min(x2 - base, 64);
+				final long range = rangeMask(from, to);
+				if ((west & current & southWest & below & range) == range) {
+					fillMasks(chunk, row + from, row + to, 0b1111);
+				} else if (((west | current | southWest | below) & range) == 0) {
+					fillMasks(chunk, row + from, row + to, 0b0000);
+				} else {
+					// Chunk rows start on a byte, so two neighboring cells share one byte from an even cell on.
+					int i = from;
+					if ((i & 1) != 0)
+						setMask(chunk, row + i, bitmask(west, current, southWest, below, i++));
+					for (; i + 1 < to; i += 2)
+						chunk[(row + i) >> 1] = (byte) (bitmask(west, current, southWest, below, i) | bitmask(west, current, southWest, below, i + 1) << 4);
+					if (i < to)
+						setMask(chunk, row + i, bitmask(west, current, southWest, below, i));
+				}
+			}
+		}
+	}
+
+	private static int bitmask(final long west, final long current, final long southWest, final long below, final int i) {
+		return (int) ((west >>> i) & 1) << 3
+			| (int) ((current >>> i) & 1) << 2
+			| (int) ((southWest >>> i) & 1) << 1
+			| (int) ((below >>> i) & 1);
+	}
+
+	private static void setMask(final byte[] chunk, final int cell, final int bitmask) {
+		final int shift = (cell & 1) << 2;
+		chunk[cell >> 1] = (byte) ((chunk[cell >> 1] & ~(0xF << shift)) | (bitmask << shift));
+	}
+
+	private static void fillMasks(final byte[] chunk, int from, final int to, final int bitmask) {
+		if ((from & 1) != 0 && from < to)
+			setMask(chunk, from++, bitmask);
+		final int pairs = (to - from) >> 1;
+		Arrays.fill(chunk, from >> 1, (from >> 1) + pairs, (byte) (bitmask | (bitmask << 4)));
+		if (((to - from) & 1) != 0)
+			setMask(chunk, to - 1, bitmask);
+	}
+
+	private static class LineOfSightTask extends RecursiveAction {
+
+		private static final int THRESHOLD = 64;
+
+		private final TileGrid tileGrid;
+		private final float[] segments;
+		private final boolean[] results;
+		private final int from;
+		private final int to;
+		private final float originX;
+		private final float originY;
+		private final float sizeX;
+		private final float sizeY;
+
+		private LineOfSightTask(TileGrid tileGrid, float[] segments, boolean[] results, int from, int to, float originX, float originY, float sizeX, float sizeY) {
+			this.tileGrid = tileGrid;
+			this.segments = segments;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.originX = originX;
+			this.originY = originY;
+			this.sizeX = sizeX;
+			this.sizeY = sizeY;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(
+					new LineOfSightTask(tileGrid, segments, results, from, middle, originX, originY, sizeX, sizeY),
+					new LineOfSightTask(tileGrid, segments, results, middle, to, originX, originY, sizeX, sizeY)
+				);
+				return;
+			}
+			tileGrid.lineOfSight(segments, results, from, to, originX, originY, sizeX, sizeY);
+		}
+
+	}
+
+	private static class MaskTask extends RecursiveAction {
+
+		private final TileGrid tileGrid;
+		private final boolean[] changed;
+		private final int from;
+		private final int to;
+
+		private MaskTask(TileGrid tileGrid, boolean[] changed, int from, int to) {
+			this.tileGrid = tileGrid;
+			this.changed = changed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new MaskTask(tileGrid, changed, from, middle), new MaskTask(tileGrid, changed, middle, to));
+				return;
+			}
+			tileGrid.updateChunkMasks(changed, from, to);
+		}
+
+	}
+
+	public enum Operation {
+
+		UNION {
+			@Override
+			long apply(long target, long source) {
+				return target | source;
+			}
+		},
+		INTERSECTION {
+			@Override
+			long apply(long target, long source) {
+				return target & source;
+			}
+		},
+		DIFFERENCE {
+			@Override
+			long apply(long target, long source) {
+				return target & ~source;
+			}
+		},
+		XOR {
+			@Override
+			long apply(long target, long source) {
+				return target ^ source;
+			}
+		},
+		REPLACE {
+			@Override
+			long apply(long target, long source) {
+				return source;
+			}
+		};
+
+		abstract long apply(long target, long source);
+
+	}
+
+	public enum Neighbor {
+
+		NORTH(0, 1),
+		NORTH_EAST(1, 1),
+		EAST(1, 0),
+		SOUTH_EAST(1, -1),
+		SOUTH(0, -1),
+		SOUTH_WEST(-1, -1),
+		WEST(-1, 0),
+		NORTH_WEST(-1, 1);
+
+		public final int dx;
+		public final int dy;
+
+		Neighbor(int dx, int dy) {
+			this.dx = dx;
+			this.dy = dy;
+		}
+
+		public Neighbor opposite() {
+			return values()[(ordinal() + 4) % 8];
+		}
+
+	}
+
+	public enum CompressionStrategy implements ICompressionStrategy {
+
+		BIT_COMPRESSED((byte) 0) {
+			@Override
+			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) {
+				int totalBits = tilesX * tilesY;
+				int totalBytes = (totalBits + 7) / 8;
+				byte[] bytes = new byte[totalBytes];
+
+				int bitIndex = 0;
+				for (int y = 0; y < tilesY; y++) {
+					for (boolean[] tile : tiles) {
+						if (tile[y])
+							bytes[bitIndex / 8] |= (byte) (1 << (bitIndex % 8));
+						bitIndex++;
+					}
+				}
+				return bytes;
+			}
+
+			@Override
+			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) {
+				boolean[][] tiles = new boolean[tilesX][tilesY];
+
+				int bitIndex = 0;
+				for (int y = 0; y < tilesY; y++) {
+					for (int x = 0; x < tilesX; x++) {
+						tiles[x][y] = (bytes[bitIndex / 8] & (1 << (bitIndex % 8))) != 0;
+						bitIndex++;
+					}
+				}
+				return tiles;
+			}
+		},
+		SPARSE_COMPRESSED((byte) 1) {
+			@Override
+			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException {
+				final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+				final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+				for (int x = 0; x < tilesX; x++)
+					for (int y = 0; y < tilesY; y++) {
+						if (tiles[x][y]) {
+							dataOutputStream.writeShort(x);
+							dataOutputStream.writeShort(y);
+						}
+					}
+				final byte[] buffer = byteArrayOutputStream.toByteArray();
+				dataOutputStream.close();
+				return buffer;
+			}
+
+			@Override
+			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException {
+				final boolean[][] tiles = new boolean[tilesX][tilesY];
+				final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
+				final DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream);
+				while (dataInputStream.available() > 0) {
+					int x = dataInputStream.readUnsignedShort();
+					int y = dataInputStream.readUnsignedShort();
+					tiles[x][y] = true;
+				}
+				return tiles;
+			}
+		},
+		RUN_LENGTH_COMPRESSED((byte) 2) {
+			@Override
+			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException {
+				final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+				final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+				boolean lastValue = tiles[0][0];
+				int count = 0;
+				for (int y = 0; y < tilesY; y++) {
+					for (int x = 0; x < tilesX; x++) {
+						// Runs longer than a short are split, each record carrying its own value.
+						if (tiles[x][y] == lastValue && count < Short.MAX_VALUE) {
+							count++;
+						} else {
+							dataOutputStream.writeBoolean(lastValue);
+							dataOutputStream.writeShort(count);
+							lastValue = tiles[x][y];
+							count = 1;
+						}
+					}
+				}
+				dataOutputStream.writeBoolean(lastValue);
+				dataOutputStream.writeShort(count);
+				return byteArrayOutputStream.toByteArray();
+			}
+
+			@Override
+			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException {
+				final boolean[][] tiles = new boolean[tilesX][tilesY];
+				final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
+				final DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream);
+
+				int x = 0, y = 0;
+				while (dataInputStream.available() > 0) {
+					boolean value = dataInputStream.readBoolean();
+					int count = dataInputStream.readShort();
+					for (int i = 0; i < count; i++) {
+						tiles[x][y] = value;
+						x++;
+						if (x >= tilesX) {
+							x = 0;
+							y++;
+						}
+					}
+				}
+				return tiles;
+			}
+		};
+
+		final byte index;
+
+		CompressionStrategy(byte index) {
+			this.index = index;
+		}
+
+		public static CompressionStrategy fromIndex(byte b) {
+			if (b == 0)
+				return CompressionStrategy.BIT_COMPRESSED;
+			else if (b == 1)
+				return CompressionStrategy.SPARSE_COMPRESSED;
+			else if (b == 2)
+				return CompressionStrategy.RUN_LENGTH_COMPRESSED;
+			else
+				throw new IllegalArgumentException("Unknown compression strategy: " + b);
+		}
+
+	}
+
+	public interface ICompressionStrategy {
+
+		byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException;
+
+		boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException;
+
+	}
+
+}
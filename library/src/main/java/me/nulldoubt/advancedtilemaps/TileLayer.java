@@ -6,94 +6,104 @@ import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
-import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.utils.*;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
-import java.util.function.Supplier;
 
-public class TileLayer {
+public class TileLayer extends TileGrid {
 
-	private static final IntMap<Byte> configuration;
-	private static final GridPoint2[] neighbors;
-
-	private static Supplier<ICompressionStrategy> customCompressionStrategySupplier;
-	private static ICompressionStrategy defaultCompressionStrategy;
 	private static IRenderStrategy defaultRenderStrategy;
 	private static float insetToleranceX;
 	private static float insetToleranceY;
-	private static byte zeroIndex;
 
 	static {
-		configuration = new IntMap<>(16);
-		configuration.put(0b1111, (byte) 6);
-		configuration.put(0b0001, (byte) 13);
-		configuration.put(0b0010, (byte) 0);
-		configuration.put(0b0100, (byte) 8);
-		configuration.put(0b1000, (byte) 15);
-		configuration.put(0b0101, (byte) 1);
-		configuration.put(0b1010, (byte) 11);
-		configuration.put(0b0011, (byte) 3);
-		configuration.put(0b1100, (byte) 9);
-		configuration.put(0b0111, (byte) 5);
-		configuration.put(0b1011, (byte) 2);
-		configuration.put(0b1101, (byte) 10);
-		configuration.put(0b1110, (byte) 7);
-		configuration.put(0b0110, (byte) 14);
-		configuration.put(0b1001, (byte) 4);
-		configuration.put(0b0000, zeroIndex = (byte) 12);
-
-		neighbors = new GridPoint2[]{
-			new GridPoint2(0, 0), new GridPoint2(1, 0),
-			new GridPoint2(0, 1), new GridPoint2(1, 1)
-		};
-
-		defaultCompressionStrategy = CompressionStrategy.RUN_LENGTH_COMPRESSED;
 		defaultRenderStrategy = RenderStrategy.VIEW_TILES_VIEW_QUADS;
 		insetToleranceX = 0.01f;
 		insetToleranceY = 0.01f;
 	}
 
-	public static void setAutoTileConfiguration(IntMap<Byte> configuration) {
-		TileLayer.configuration.clear(16);
-		TileLayer.configuration.putAll(configuration);
-		zeroIndex = TileLayer.configuration.get(0b0000);
-	}
-
 	/* Re-set your tileSet after using this! */
 	public static void setInsetTolerance(float insetToleranceX, float insetToleranceY) {
 		TileLayer.insetToleranceX = insetToleranceX;
 		TileLayer.insetToleranceY = insetToleranceY;
 	}
 
-	public static IRenderStrategy getDefaultRenderStrategy() {
-		return defaultRenderStrategy;
+	static void createTileSet(final TextureRegion textureRegion, final float tileWidth, final float tileHeight, final TextureRegion[] tileSet) {
+		final Texture texture = textureRegion.getTexture();
+		final float tileSetU = textureRegion.getU();
+		final float tileSetV = textureRegion.getV();
+		final float width = tileWidth / texture.getWidth();
+		final float height = tileHeight / texture.getHeight();
+		final float insetX = insetToleranceX / texture.getWidth();
+		final float insetY = insetToleranceY / texture.getHeight();
+		for (int i = 0; i < 4; i++)
+			for (int j = 0; j < 4; j++) {
+				final float u = tileSetU + i * width + insetX;
+				final float v = tileSetV + j * height + insetY;
+				tileSet[i + j * 4] = new TextureRegion(texture, u, v, u + width - 2 * insetX, v + height - 2 * insetY);
+			}
 	}
 
-	public static void setDefaultRenderStrategy(IRenderStrategy defaultRenderStrategy) {
-		TileLayer.defaultRenderStrategy = defaultRenderStrategy;
+	/* Deterministic per-tile hash, used wherever tiles need to vary without storing anything per tile. */
+	static int hash(final int x, final int y) {
+		int h = x * 0x27D4EB2D ^ y * 0x165667B1;
+		h ^= h >>> 15;
+		h *= 0x2C1B3C6D;
+		h ^= h >>> 12;
+		return h;
 	}
 
-	public static ICompressionStrategy getDefaultCompressionStrategy() {
-		return defaultCompressionStrategy;
+	static void viewBounds(final OrthographicCamera camera, final Rectangle viewBounds) {
+		float width = camera.viewportWidth * camera.zoom;
+		float height = camera.viewportHeight * camera.zoom;
+		float w = width * Math.abs(camera.up.y) + height * Math.abs(camera.up.x);
+		float h = height * Math.abs(camera.up.y) + width * Math.abs(camera.up.x);
+		viewBounds.set(camera.position.x - w / 2, camera.position.y - h / 2, w, h);
 	}
 
-	public static void setDefaultCompressionStrategy(ICompressionStrategy defaultCompressionStrategy) {
-		TileLayer.defaultCompressionStrategy = defaultCompressionStrategy;
+	public static IRenderStrategy getDefaultRenderStrategy() {
+		return defaultRenderStrategy;
 	}
 
-	public static void setCustomCompressionStrategySupplier(Supplier<ICompressionStrategy> customCompressionStrategySupplier) {
-		TileLayer.customCompressionStrategySupplier = customCompressionStrategySupplier;
+	public static void setDefaultRenderStrategy(IRenderStrategy defaultRenderStrategy) {
+		TileLayer.defaultRenderStrategy = defaultRenderStrategy;
 	}
 
 	/* Serialization methods */
+
+	/* Reads the native format, see LayerFile, or legacy UBJson. */
 	public static TileLayer read(FileHandle fileHandle) {
+		try (final FileChannel channel = LayerFile.open(fileHandle)) {
+			if (channel != null)
+				return LayerFile.readLayer(channel);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to read tile layer", e);
+		}
 		return read(fileHandle.read());
 	}
 
+	/* Reads the native format or legacy UBJson, closing the stream. */
 	public static TileLayer read(InputStream inputStream) {
+		final BufferedInputStream in = new BufferedInputStream(inputStream);
+		try {
+			if (LayerFile.skipMagic(in)) {
+				try (final ReadableByteChannel channel = Channels.newChannel(in)) {
+					return LayerFile.readLayer(channel);
+				}
+			}
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to read tile layer", e);
+		}
+		return readUBJson(in);
+	}
+
+	private static TileLayer readUBJson(InputStream inputStream) {
 		final UBJsonReader reader = new UBJsonReader();
 		reader.oldFormat = false;
 
@@ -110,31 +120,35 @@ public class TileLayer {
 
 		if (root.has("renderStrategy"))
 			tileLayer.setRenderStrategy(RenderStrategy.fromIndex(root.getByte("renderStrategy")));
-		if (root.has("compressionStrategy"))
-			tileLayer.setCompressionStrategy(CompressionStrategy.fromIndex(root.getByte("compressionStrategy")));
-		else if (customCompressionStrategySupplier == null)
-			throw new IllegalStateException("Custom compression strategy supplier not set");
-		else
-			tileLayer.setCompressionStrategy(customCompressionStrategySupplier.get());
-
-		boolean[][] tiles;
-		try {
-			tiles = tileLayer.compressionStrategy.decompress(root.get("tiles").asByteArray(), tileLayer.tilesX, tileLayer.tilesY);
-		} catch (IOException e) {
-			throw new GdxRuntimeException("Unable to decompress tile layer", e);
-		}
-		for (int x = 0; x < tileLayer.tilesX; x++)
-			for (int y = 0; y < tileLayer.tilesY; y++)
-				tileLayer.tileAt(x, y, tiles[x][y]);
+		readTiles(root, tileLayer);
+		if (root.has("channels"))
+			readChannels(root.get("channels"), tileLayer);
 
 		return tileLayer;
 	}
 
+	/* Writes the native format, see LayerFile. */
 	public static boolean write(TileLayer tileLayer, FileHandle fileHandle) {
-		return write(tileLayer, fileHandle.write(false));
+		try {
+			LayerFile.write(tileLayer, fileHandle);
+			return true;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to write tile layer", e);
+		}
 	}
 
+	/* Writes the native format, closing the stream. */
 	public static boolean write(TileLayer tileLayer, OutputStream outputStream) {
+		try (final WritableByteChannel channel = Channels.newChannel(outputStream)) {
+			LayerFile.write(tileLayer, channel);
+			return true;
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to write tile layer", e);
+		}
+	}
+
+	/* Writes the legacy UBJson format, for readers predating the native one. */
+	public static boolean writeUBJson(TileLayer tileLayer, OutputStream outputStream) {
 		try (final UBJsonWriter writer = new UBJsonWriter(outputStream)) {
 			writer
 				.object()
@@ -148,10 +162,10 @@ public class TileLayer {
 			if (tileLayer.renderStrategy instanceof RenderStrategy)
 				writer.set("renderStrategy", ((RenderStrategy) tileLayer.renderStrategy).index);
 
-			if (tileLayer.compressionStrategy instanceof CompressionStrategy)
-				writer.set("compressionStrategy", ((CompressionStrategy) tileLayer.compressionStrategy).index);
-
-			writer.set("tiles", tileLayer.compressionStrategy.compress(tileLayer.tiles, tileLayer.tilesX, tileLayer.tilesY))
+			writeTiles(writer, tileLayer);
+			if (tileLayer.getChannelCount() > 0)
+				writeChannels(writer, tileLayer);
+			writer
 				.pop()
 				.flush();
 			return true;
@@ -160,17 +174,89 @@ public class TileLayer {
 		}
 	}
 
+	/* Each channel as its name, type, the cells (x + y * tilesX) holding values and the values in the same order. */
+	private static void readChannels(final JsonValue channels, final TileLayer tileLayer) {
+		for (JsonValue value = channels.child; value != null; value = value.next) {
+			final TileChannel channel = tileLayer.addChannel(value.getString("name"), TileChannel.Type.fromIndex(value.getByte("type")));
+			final int[] cells = value.get("cells").asIntArray();
+			final JsonValue values = value.get("values");
+			switch (channel.getType()) {
+				case INT: {
+					final int[] ints = values.asIntArray();
+					for (int i = 0; i < cells.length; i++)
+						channel.setInt(cells[i] % tileLayer.tilesX, cells[i] / tileLayer.tilesX, ints[i]);
+					break;
+				}
+				case FLOAT: {
+					final float[] floats = values.asFloatArray();
+					for (int i = 0; i < cells.length; i++)
+						channel.setFloat(cells[i] % tileLayer.tilesX, cells[i] / tileLayer.tilesX, floats[i]);
+					break;
+				}
+				case LONG: {
+					final long[] longs = values.asLongArray();
+					for (int i = 0; i < cells.length; i++)
+						channel.setLong(cells[i] % tileLayer.tilesX, cells[i] / tileLayer.tilesX, longs[i]);
+					break;
+				}
+			}
+		}
+	}
+
+	private static void writeChannels(final UBJsonWriter writer, final TileLayer tileLayer) throws IOException {
+		writer.array("channels");
+		for (final TileChannel channel : tileLayer.channels) {
+			final int[] cells = new int[channel.getSize()];
+			final long[] values = new long[channel.getSize()];
+			final int[] count = new int[1];
+			channel.forEach((x, y, value) -> {
+				cells[count[0]] = x + y * tileLayer.tilesX;
+				values[count[0]++] = value;
+			});
+			writer
+				.object()
+				.set("name", channel.getName())
+				.set("type", channel.getType().index)
+				.set("cells", cells);
+			switch (channel.getType()) {
+				case INT: {
+					final int[] ints = new int[values.length];
+					for (int i = 0; i < values.length; i++)
+						ints[i] = (int) values[i];
+					writer.set("values", ints);
+					break;
+				}
+				case FLOAT: {
+					final float[] floats = new float[values.length];
+					for (int i = 0; i < values.length; i++)
+						floats[i] = Float.intBitsToFloat((int) values[i]);
+					writer.set("values", floats);
+					break;
+				}
+				case LONG:
+					writer.set("values", values);
+					break;
+			}
+			writer.pop();
+		}
+		writer.pop();
+	}
+
 	private final TextureRegion[] tileSet;
-	private final Rectangle viewBounds;
+	private final TextureRegion[][] tileVariants;
+	private final int[][] tileVariantThresholds;
+	private TextureRegion[][] animationFrames;
+	private float frameDuration;
+	private boolean animationPhased;
+	private float animationTime;
+	private int animationFrame;
+	private final TileView view;
 	private Texture texture;
 
 	private Texture overlayTexture;
 	private ShaderProgram overlayShaderProgram;
 	private boolean overlayed;
 
-	private final int tilesX;
-	private final int tilesY;
-
 	private final float tileWidth;
 	private final float tileHeight;
 
@@ -180,17 +266,16 @@ public class TileLayer {
 	private float overlayScale;
 	private float unitScale;
 
-	private final boolean[][] tiles;
-	private final byte[][] indices;
+	private float positionX;
+	private float positionY;
 
 	private IRenderStrategy renderStrategy;
-	private ICompressionStrategy compressionStrategy;
-	private int tilesRendered;
-	private int quadsRendered;
+
+	/* Null until the first channel is added, which also keeps the edits done by the TileGrid constructor away from it. */
+	private Array<TileChannel> channels;
 
 	public TileLayer(int tilesX, int tilesY, float tileWidth, float tileHeight, float unitScale, boolean fill) {
-		this.tilesX = tilesX;
-		this.tilesY = tilesY;
+		super(tilesX, tilesY, fill);
 		this.tileWidth = tileWidth;
 		this.tileHeight = tileHeight;
 		this.unitScale = unitScale;
@@ -198,23 +283,102 @@ public class TileLayer {
 		offsetX = tileWidth / 2f;
 		offsetY = tileHeight / 2f;
 
-		tiles = new boolean[tilesX][tilesY];
-		indices = new byte[tilesX][tilesY];
-
 		tileSet = new TextureRegion[16];
-		viewBounds = new Rectangle();
+		tileVariants = new TextureRegion[16][];
+		tileVariantThresholds = new int[16][];
+		view = new TileView("default");
 
 		renderStrategy = defaultRenderStrategy;
-		compressionStrategy = defaultCompressionStrategy;
-		fill(fill);
 	}
 
-	public int getTilesX() {
-		return tilesX;
+	/* A read-only snapshot keeping the tile set and settings, see snapshot(). */
+	private TileLayer(final TileLayer tileLayer) {
+		super(tileLayer, true);
+		tileWidth = tileLayer.tileWidth;
+		tileHeight = tileLayer.tileHeight;
+		unitScale = tileLayer.unitScale;
+		offsetX = tileLayer.offsetX;
+		offsetY = tileLayer.offsetY;
+		positionX = tileLayer.positionX;
+		positionY = tileLayer.positionY;
+
+		texture = tileLayer.texture;
+		tileSet = tileLayer.tileSet.clone();
+		tileVariants = tileLayer.tileVariants.clone();
+		tileVariantThresholds = tileLayer.tileVariantThresholds.clone();
+		animationFrames = tileLayer.animationFrames;
+		frameDuration = tileLayer.frameDuration;
+		animationPhased = tileLayer.animationPhased;
+		animationTime = tileLayer.animationTime;
+		animationFrame = tileLayer.animationFrame;
+		view = new TileView(tileLayer.view.getName());
+		view.getBounds().set(tileLayer.view.getBounds());
+
+		overlayTexture = tileLayer.overlayTexture;
+		overlayShaderProgram = tileLayer.overlayShaderProgram;
+		overlayed = tileLayer.overlayed;
+		overlayScale = tileLayer.overlayScale;
+		renderStrategy = tileLayer.renderStrategy;
+
+		if (tileLayer.channels != null) {
+			channels = new Array<>(tileLayer.channels.size);
+			for (final TileChannel channel : tileLayer.channels)
+				channels.add(new TileChannel(this, channel));
+		}
+	}
+
+	/* Can be written with write(TileLayer, OutputStream) on another thread, or even rendered. Channels are copied. */
+	@Override
+	public TileLayer snapshot() {
+		return new TileLayer(this);
+	}
+
+	/* Adds a sparse per-tile attribute, see TileChannel. Channel names are unique per layer. */
+	public TileChannel addChannel(final String name, final TileChannel.Type type) {
+		checkWritable();
+		if (getChannel(name) != null)
+			throw new IllegalArgumentException("Channel already exists: " + name);
+		if (channels == null)
+			channels = new Array<>();
+		final TileChannel channel = new TileChannel(this, name, type);
+		channels.add(channel);
+		return channel;
+	}
+
+	public TileChannel getChannel(final String name) {
+		if (channels != null)
+			for (final TileChannel channel : channels)
+				if (channel.getName().equals(name))
+					return channel;
+		return null;
+	}
+
+	public boolean removeChannel(final String name) {
+		checkWritable();
+		final TileChannel channel = getChannel(name);
+		return channel != null && channels.removeValue(channel, true);
+	}
+
+	public int getChannelCount() {
+		return (channels == null) ? 0 : channels.size;
 	}
 
-	public int getTilesY() {
-		return tilesY;
+	public TileChannel getChannel(final int index) {
+		return channels.get(index);
+	}
+
+	@Override
+	void tilesChanged(final int x1, final int y1, final int x2, final int y2) {
+		if (channels != null)
+			for (int i = 0; i < channels.size; i++)
+				channels.get(i).tilesChanged(x1, y1, x2, y2);
+	}
+
+	@Override
+	void chunksChanged(final boolean[] changed) {
+		if (channels != null)
+			for (int i = 0; i < channels.size; i++)
+				channels.get(i).chunksChanged(changed);
 	}
 
 	public float getTileWidth() {
@@ -241,6 +405,54 @@ public class TileLayer {
 		this.unitScale = unitScale;
 	}
 
+	public float getPositionX() {
+		return positionX;
+	}
+
+	public float getPositionY() {
+		return positionY;
+	}
+
+	/* Moves the whole layer in world units, e.g. to place shards of a larger world. */
+	public void setPosition(float positionX, float positionY) {
+		this.positionX = positionX;
+		this.positionY = positionY;
+	}
+
+	/* Tile (x, y) covers the world units between the centers of the dual-grid cells drawn around it. */
+	public float getTileOriginX() {
+		return positionX + (offsetX + tileWidth / 2f) * unitScale;
+	}
+
+	public float getTileOriginY() {
+		return positionY + (offsetY + tileHeight / 2f) * unitScale;
+	}
+
+	/* Like raycast, but in world units, the hit distance and point included. */
+	public boolean raycastWorld(final float x, final float y, final float directionX, final float directionY, final float maxDistance, final RaycastHit hit) {
+		final float length = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+		if (length == 0f)
+			return false;
+		final float originX = getTileOriginX(), originY = getTileOriginY();
+		final float sizeX = tileWidth * unitScale, sizeY = tileHeight * unitScale;
+		if (!raycast((x - originX) / sizeX, (y - originY) / sizeY, directionX / length / sizeX, directionY / length / sizeY, maxDistance, hit))
+			return false;
+		if (hit != null)
+			hit.setPoint(originX + hit.getPointX() * sizeX, originY + hit.getPointY() * sizeY);
+		return true;
+	}
+
+	public boolean lineOfSightWorld(final float x1, final float y1, final float x2, final float y2) {
+		final float originX = getTileOriginX(), originY = getTileOriginY();
+		final float sizeX = tileWidth * unitScale, sizeY = tileHeight * unitScale;
+		return lineOfSight((x1 - originX) / sizeX, (y1 - originY) / sizeY, (x2 - originX) / sizeX, (y2 - originY) / sizeY);
+	}
+
+	/* Like lineOfSight(float[], boolean[]), but with segments in world units. */
+	public void lineOfSightWorld(final float[] segments, final boolean[] results) {
+		lineOfSight(segments, results, getTileOriginX(), getTileOriginY(), tileWidth * unitScale, tileHeight * unitScale);
+	}
+
 	public float getOverlayScale() {
 		return overlayScale;
 	}
@@ -273,232 +485,343 @@ public class TileLayer {
 		return texture != null;
 	}
 
+	/* Shares an already sliced tile set, see createTileSet. */
+	void setTileSet(final Texture texture, final TextureRegion[] tileSet) {
+		this.texture = texture;
+		System.arraycopy(tileSet, 0, this.tileSet, 0, 16);
+	}
+
 	public Texture getTileSetTexture() {
 		return texture;
 	}
 
 	public void setTileSet(final TextureRegion textureRegion) {
 		texture = textureRegion.getTexture();
-		final float tileSetU = textureRegion.getU();
-		final float tileSetV = textureRegion.getV();
-		final float width = tileWidth / texture.getWidth();
-		final float height = tileHeight / texture.getHeight();
-		final float insetX = insetToleranceX / texture.getWidth();
-		final float insetY = insetToleranceY / texture.getHeight();
-		for (int i = 0; i < 4; i++)
-			for (int j = 0; j < 4; j++) {
-				final float u = tileSetU + i * width + insetX;
-				final float v = tileSetV + j * height + insetY;
-				tileSet[i + j * 4] = new TextureRegion(texture, u, v, u + width - 2 * insetX, v + height - 2 * insetY);
-			}
+		createTileSet(textureRegion, tileWidth, tileHeight, tileSet);
+		animationFrames = null;
 	}
 
-	public Rectangle getViewBounds() {
-		return viewBounds;
+	public void setAnimatedTileSet(final TextureRegion[] frames, final float frameDuration) {
+		setAnimatedTileSet(frames, frameDuration, false);
 	}
 
-	public int getTilesRendered() {
-		return tilesRendered;
+	/*
+	 * Each frame is laid out like the region passed to setTileSet and sliced once, all on the same texture. Frames advance
+	 * every frameDuration of the animation time; phased tiles start at a frame picked by their coordinate hash, so that
+	 * e.g. water doesn't ripple in lockstep. Tiles with variants keep showing their variant.
+	 */
+	public void setAnimatedTileSet(final TextureRegion[] frames, final float frameDuration, final boolean phased) {
+		if (frames.length == 0)
+			throw new IllegalArgumentException("Expected at least one frame");
+		if (frameDuration <= 0f)
+			throw new IllegalArgumentException("frameDuration must be positive: " + frameDuration);
+		for (final TextureRegion frame : frames)
+			if (frame.getTexture() != frames[0].getTexture())
+				throw new IllegalArgumentException("All frames must share one texture");
+		setTileSet(frames[0]);
+		final TextureRegion[][] sliced = new TextureRegion[frames.length][16];
+		for (int i = 0; i < frames.length; i++)
+			createTileSet(frames[i], tileWidth, tileHeight, sliced[i]);
+		animationFrames = sliced;
+		this.frameDuration = frameDuration;
+		animationPhased = phased;
+		setAnimationTime(animationTime);
 	}
 
-	public int getQuadsRendered() {
-		return quadsRendered;
+	public boolean isAnimated() {
+		return animationFrames != null;
 	}
 
-	public IRenderStrategy getRenderStrategy() {
-		return renderStrategy;
+	public int getAnimationFrames() {
+		return (animationFrames == null) ? 1 : animationFrames.length;
 	}
 
-	public void setRenderStrategy(IRenderStrategy renderStrategy) {
-		this.renderStrategy = renderStrategy;
+	public float getFrameDuration() {
+		return frameDuration;
 	}
 
-	public ICompressionStrategy getCompressionStrategy() {
-		return compressionStrategy;
+	public boolean isAnimationPhased() {
+		return animationPhased;
 	}
 
-	public void setCompressionStrategy(ICompressionStrategy compressionStrategy) {
-		this.compressionStrategy = compressionStrategy;
+	public float getAnimationTime() {
+		return animationTime;
 	}
 
-	public void fill(boolean state) {
-		for (final boolean[] row : tiles)
-			Arrays.fill(row, state);
-		final byte tile = configuration.get(state ? 0b1111 : 0b0000);
-		for (final byte[] row : indices)
-			Arrays.fill(row, tile);
+	/* Picks the frame to render, e.g. from the time since the start of the game. */
+	public void setAnimationTime(final float animationTime) {
+		this.animationTime = animationTime;
+		if (animationFrames != null)
+			animationFrame = Math.floorMod((int) Math.floor(animationTime / frameDuration), animationFrames.length);
 	}
 
-	public boolean isOutOfBounds(final int x, final int y) {
-		return (x < 0 || y < 0 || x >= tilesX || y >= tilesY);
+	public void updateAnimation(final float delta) {
+		setAnimationTime(animationTime + delta);
 	}
 
-	public boolean tileAt(final int x, final int y) {
-		if (isOutOfBounds(x, y))
-			return false;
-		return tiles[x][y];
+	/* Keeps showing the first frame. */
+	public void clearAnimation() {
+		animationFrames = null;
 	}
 
-	public void tileAt(final int x, final int y, final boolean state) {
-		if (isOutOfBounds(x, y))
-			return;
-		tiles[x][y] = state;
-		for (final GridPoint2 neighbor : neighbors) {
-			final int nX = x + neighbor.x;
-			final int nY = y + neighbor.y;
-			if (isOutOfBounds(nX, nY))
-				continue;
-
-			int bitmask = 0;
-			bitmask |= tileAt(nX - neighbors[1].x, nY - neighbors[1].y) ? (1 << 3) : 0;
-			bitmask |= tileAt(nX - neighbors[0].x, nY - neighbors[0].y) ? (1 << 2) : 0;
-			bitmask |= tileAt(nX - neighbors[3].x, nY - neighbors[3].y) ? (1 << 1) : 0;
-			bitmask |= tileAt(nX - neighbors[2].x, nY - neighbors[2].y) ? (1) : 0;
-			indices[nX][nY] = configuration.get(bitmask);
+	/* Variants are picked per tile by a coordinate hash, so large uniform areas don't look repetitive. */
+	public void setTileVariants(final int index, final TextureRegion[] variants, final float[] weights) {
+		if (variants.length == 0 || variants.length != weights.length)
+			throw new IllegalArgumentException("Expected one weight per variant");
+		float total = 0f;
+		for (final float weight : weights) {
+			if (weight < 0f)
+				throw new IllegalArgumentException("Variant weights must not be negative");
+			total += weight;
+		}
+		if (total <= 0f)
+			throw new IllegalArgumentException("Variant weights must not all be zero");
+
+		final int[] thresholds = new int[variants.length];
+		float cumulative = 0f;
+		for (int i = 0; i < variants.length; i++) {
+			cumulative += weights[i];
+			thresholds[i] = (int) (cumulative / total * 0x10000);
+		}
+		thresholds[variants.length - 1] = 0x10000;
+
+		tileVariants[index] = variants.clone();
+		tileVariantThresholds[index] = thresholds;
+	}
+
+	/* Each tile-set region is laid out like the one passed to setTileSet, the first one becomes the tile set itself. */
+	public void setTileSetVariants(final TextureRegion[] textureRegions, final float[] weights) {
+		if (textureRegions.length == 0 || textureRegions.length != weights.length)
+			throw new IllegalArgumentException("Expected one weight per tile-set variant");
+		setTileSet(textureRegions[0]);
+		final TextureRegion[][] sliced = new TextureRegion[textureRegions.length][16];
+		for (int i = 0; i < textureRegions.length; i++)
+			createTileSet(textureRegions[i], tileWidth, tileHeight, sliced[i]);
+		final TextureRegion[] variants = new TextureRegion[textureRegions.length];
+		for (int index = 0; index < 16; index++) {
+			for (int i = 0; i < textureRegions.length; i++)
+				variants[i] = sliced[i][index];
+			setTileVariants(index, variants, weights);
+		}
+	}
+
+	public void clearTileVariants() {
+		Arrays.fill(tileVariants, null);
+		Arrays.fill(tileVariantThresholds, null);
+	}
+
+	TextureRegion tileRegion(final int index, final int x, final int y) {
+		final TextureRegion[] variants = tileVariants[index];
+		if (variants == null) {
+			final TextureRegion[][] frames = animationFrames;
+			if (frames == null)
+				return tileSet[index];
+			final int frame = animationPhased ? (animationFrame + (hash(x, y) >>> 16)) % frames.length : animationFrame;
+			return frames[frame][index];
 		}
+		final int[] thresholds = tileVariantThresholds[index];
+		final int h = hash(x, y) & 0xFFFF;
+		int i = 0;
+		while (h >= thresholds[i])
+			i++;
+		return variants[i];
+	}
+
+	public Rectangle getViewBounds() {
+		return view.getBounds();
+	}
+
+	/* The view set by setView and rendered by render(Batch). */
+	public TileView getView() {
+		return view;
+	}
+
+	/* Of the last render through the layer's own view. */
+	public int getTilesRendered() {
+		return view.getTilesRendered();
+	}
+
+	/* Of the last render through the layer's own view. */
+	public int getQuadsRendered() {
+		return view.getQuadsRendered();
+	}
+
+	public IRenderStrategy getRenderStrategy() {
+		return renderStrategy;
+	}
+
+	public void setRenderStrategy(IRenderStrategy renderStrategy) {
+		this.renderStrategy = renderStrategy;
 	}
 
 	/* May be called before rendering! */
 	public void setView(OrthographicCamera camera) {
-		float width = camera.viewportWidth * camera.zoom;
-		float height = camera.viewportHeight * camera.zoom;
-		float w = width * Math.abs(camera.up.y) + height * Math.abs(camera.up.x);
-		float h = height * Math.abs(camera.up.y) + width * Math.abs(camera.up.x);
-		viewBounds.set(camera.position.x - w / 2, camera.position.y - h / 2, w, h);
+		view.set(camera);
 	}
 
 	/* May be called before rendering! */
 	public void setView(float x, float y, float width, float height) {
-		viewBounds.set(x, y, width, height);
+		view.set(x, y, width, height);
 	}
 
 	public void render(final Batch batch) {
+		view.resetCounts();
+		render(batch, view);
+	}
+
+	/* Generates the vertices of the visible chunks in parallel into the buffer, then submits them in order. */
+	public void render(final Batch batch, final TileVertexBuffer vertices) {
+		view.resetCounts();
+		render(batch, view, vertices);
+	}
+
+	/* Renders through the given view instead of the layer's own, adding to the view's counts. */
+	public void render(final Batch batch, final TileView view) {
 		if (texture == null)
 			return;
+		beginOverlay(batch);
+		view.batchSink.batch = batch;
+		renderStrategy.render(this, view, view.batchSink);
+		view.batchSink.batch = null;
+		endOverlay(batch);
+	}
 
-		if (overlayed) {
-			overlayTexture.bind(1);
-			texture.bind(0);
-			overlayShaderProgram.bind();
-			overlayShaderProgram.setUniformi("u_overlay", 1);
-			overlayShaderProgram.setUniformi("u_texture", 0);
-			overlayShaderProgram.setUniformf("u_scale", overlayScale / unitScale);
-			batch.setShader(overlayShaderProgram);
-		}
+	public void render(final Batch batch, final TileView view, final TileVertexBuffer vertices) {
+		if (texture == null)
+			return;
+		beginOverlay(batch);
+		vertices.begin(batch.getPackedColor());
+		renderStrategy.render(this, view, vertices);
+		vertices.end(batch);
+		endOverlay(batch);
+	}
 
-		renderStrategy.render(this, batch);
+	private void beginOverlay(final Batch batch) {
+		if (overlayed)
+			beginOverlay(batch, texture, overlayTexture, overlayShaderProgram, overlayScale / unitScale);
+	}
+
+	/* Also used by WorldLayer, which renders all of its chunks within a single overlay pass. */
+	static void beginOverlay(final Batch batch, final Texture texture, final Texture overlayTexture, final ShaderProgram overlayShaderProgram, final float scale) {
+		overlayTexture.bind(1);
+		texture.bind(0);
+		overlayShaderProgram.bind();
+		overlayShaderProgram.setUniformi("u_overlay", 1);
+		overlayShaderProgram.setUniformi("u_texture", 0);
+		overlayShaderProgram.setUniformf("u_scale", scale);
+		batch.setShader(overlayShaderProgram);
+	}
 
+	private void endOverlay(final Batch batch) {
 		if (overlayed)
 			batch.setShader(null);
 	}
 
+	/*
+	 * Renders the cells [col1, col2) x [row1, row2) chunk by chunk, the given chunks or all overlapping ones if null, into
+	 * a vertex buffer by all chunks in parallel unless cold chunks rule out concurrent readers. Adds to the view's counts.
+	 */
+	private void renderCells(final TileView view, final IVertexSink sink, final int col1, final int col2, final int row1, final int row2, final IntArray chunks, final boolean allQuads) {
+		if (col1 >= col2 || row1 >= row2)
+			return;
+		view.tilesRendered += countTiles(col1, row1, col2, row2);
+		if (sink instanceof TileVertexBuffer && allowsConcurrentAccess()) {
+			view.quadsRendered += ((TileVertexBuffer) sink).renderChunks(this, chunks, col1, col2, row1, row2, allQuads);
+			return;
+		}
+		if (chunks != null) {
+			final int chunksX = getChunksX();
+			for (int i = 0; i < chunks.size; i++)
+				view.quadsRendered += renderChunk(sink, chunks.get(i) % chunksX, chunks.get(i) / chunksX, col1, col2, row1, row2, allQuads);
+			return;
+		}
+		for (int chunkY = row1 >> CHUNK_SHIFT; chunkY <= (row2 - 1) >> CHUNK_SHIFT; chunkY++)
+			for (int chunkX = col1 >> CHUNK_SHIFT; chunkX <= (col2 - 1) >> CHUNK_SHIFT; chunkX++)
+				view.quadsRendered += renderChunk(sink, chunkX, chunkY, col1, col2, row1, row2, allQuads);
+	}
+
+	/*
+	 * Renders the cells of a chunk within [col1, col2) x [row1, row2) and returns the amount of quads. Only the first column
+	 * and row of a chunk read tiles of other chunks, so the rest of an empty chunk is skipped (or drawn empty), and the rest
+	 * of a full chunk drawn full, without looking at any masks.
+	 */
+	int renderChunk(final IVertexSink sink, final int chunkX, final int chunkY, final int col1, final int col2, final int row1, final int row2, final boolean allQuads) {
+		final int y1 = Math.max(row1, chunkY << CHUNK_SHIFT);
+		final int y2 = Math.min(row2, (chunkY + 1) << CHUNK_SHIFT);
+		final int x1 = Math.max(col1, chunkX << CHUNK_SHIFT);
+		final int x2 = Math.min(col2, (chunkX + 1) << CHUNK_SHIFT);
+		final int uniform = isChunkEmpty(chunkX, chunkY) ? 0b0000 : isChunkFull(chunkX, chunkY) ? 0b1111 : -1;
+		int quads = 0;
+		if (uniform == -1) {
+			for (int y = y1; y < y2; y++)
+				for (int x = x1; x < x2; x++)
+					quads += renderCell(sink, x, y, maskAt(x, y), allQuads);
+			return quads;
+		}
+		final int edgeX = ((x1 & CHUNK_MASK) == 0) ? x1 : -1;
+		final int edgeY = ((y1 & CHUNK_MASK) == 0) ? y1 : -1;
+		if (uniform == 0b0000 && !allQuads) {
+			// Surrounded by empty chunks, the first column and row are empty as well.
+			if (chunkX > 0 && chunkY > 0 && isChunkEmpty(chunkX - 1, chunkY) && isChunkEmpty(chunkX, chunkY - 1) && isChunkEmpty(chunkX - 1, chunkY - 1))
+				return 0;
+			if (edgeX != -1)
+				for (int y = y1; y < y2; y++)
+					quads += renderCell(sink, edgeX, y, maskAt(edgeX, y), false);
+			if (edgeY != -1)
+				for (int x = (edgeX != -1) ? x1 + 1 : x1; x < x2; x++)
+					quads += renderCell(sink, x, edgeY, maskAt(x, edgeY), false);
+			return quads;
+		}
+		for (int y = y1; y < y2; y++)
+			for (int x = x1; x < x2; x++)
+				quads += renderCell(sink, x, y, (x == edgeX || y == edgeY) ? maskAt(x, y) : uniform, allQuads);
+		return quads;
+	}
+
+	private int renderCell(final IVertexSink sink, final int x, final int y, final int mask, final boolean allQuads) {
+		if (mask == 0b0000 && !allQuads)
+			return 0;
+		sink.draw(tileRegion(lookup[mask], x, y),
+			positionX + (offsetX + x * tileWidth) * unitScale,
+			positionY + (offsetY + y * tileHeight) * unitScale,
+			tileWidth * unitScale, tileHeight * unitScale
+		);
+		return 1;
+	}
+
 	public enum RenderStrategy implements IRenderStrategy {
 
 		ALL_TILES_ALL_QUADS((byte) 0) {
 			@Override
-			public void render(TileLayer tileLayer, Batch batch) {
-				final float tileWidth = tileLayer.tileWidth * tileLayer.unitScale;
-				final float tileHeight = tileLayer.tileHeight * tileLayer.unitScale;
-				tileLayer.tilesRendered = 0;
-				tileLayer.quadsRendered = 0;
-				for (int x = 0; x < tileLayer.tilesX; x++) {
-					for (int y = 0; y < tileLayer.tilesY; y++) {
-						if (tileLayer.tiles[x][y])
-							tileLayer.tilesRendered++;
-						tileLayer.quadsRendered++;
-						batch.draw(tileLayer.tileSet[tileLayer.indices[x][y]],
-							(tileLayer.offsetX + x * tileLayer.tileWidth) * tileLayer.unitScale,
-							(tileLayer.offsetY + y * tileLayer.tileHeight) * tileLayer.unitScale,
-							tileWidth, tileHeight
-						);
-					}
-				}
+			public void render(TileLayer tileLayer, TileView view, IVertexSink sink) {
+				tileLayer.renderCells(view, sink, 0, tileLayer.tilesX, 0, tileLayer.tilesY, null, true);
 			}
 		},
 
 		ALL_TILES_VIEW_QUADS((byte) 1) {
 			@Override
-			public void render(TileLayer tileLayer, Batch batch) {
-				final float tileWidth = tileLayer.tileWidth * tileLayer.unitScale;
-				final float tileHeight = tileLayer.tileHeight * tileLayer.unitScale;
-				tileLayer.tilesRendered = 0;
-				tileLayer.quadsRendered = 0;
-				byte index;
-				for (int x = 0; x < tileLayer.tilesX; x++) {
-					for (int y = 0; y < tileLayer.tilesY; y++) {
-						if (tileLayer.tiles[x][y])
-							tileLayer.tilesRendered++;
-						index = tileLayer.indices[x][y];
-						if (index == zeroIndex)
-							continue;
-						tileLayer.quadsRendered++;
-						batch.draw(tileLayer.tileSet[index],
-							(tileLayer.offsetX + x * tileLayer.tileWidth) * tileLayer.unitScale,
-							(tileLayer.offsetY + y * tileLayer.tileHeight) * tileLayer.unitScale,
-							tileWidth, tileHeight
-						);
-					}
-				}
+			public void render(TileLayer tileLayer, TileView view, IVertexSink sink) {
+				tileLayer.renderCells(view, sink, 0, tileLayer.tilesX, 0, tileLayer.tilesY, null, false);
 			}
 		},
 
 		VIEW_TILES_ALL_QUADS((byte) 2) {
 			@Override
-			public void render(TileLayer tileLayer, Batch batch) {
-				final float tileWidth = tileLayer.tileWidth * tileLayer.unitScale;
-				final float tileHeight = tileLayer.tileHeight * tileLayer.unitScale;
-				int col1 = Math.max(0, (int) ((tileLayer.viewBounds.x - tileLayer.offsetX) / (tileWidth)));
-				int col2 = Math.min(tileLayer.tilesX, (int) ((tileLayer.viewBounds.x + tileLayer.viewBounds.width) / (tileWidth)) + 1);
-				int row1 = Math.max(0, (int) ((tileLayer.viewBounds.y - tileLayer.offsetY) / (tileHeight)));
-				int row2 = Math.min(tileLayer.tilesY, (int) ((tileLayer.viewBounds.y + tileLayer.viewBounds.height) / (tileHeight)) + 1);
-				tileLayer.tilesRendered = 0;
-				tileLayer.quadsRendered = 0;
-				for (int x = col1; x < col2; x++) {
-					for (int y = row1; y < row2; y++) {
-						if (tileLayer.tiles[x][y])
-							tileLayer.tilesRendered++;
-						tileLayer.quadsRendered++;
-						batch.draw(tileLayer.tileSet[tileLayer.indices[x][y]],
-							(tileLayer.offsetX + x * tileLayer.tileWidth) * tileLayer.unitScale,
-							(tileLayer.offsetY + y * tileLayer.tileHeight) * tileLayer.unitScale,
-							tileWidth, tileHeight
-						);
-					}
-				}
+			public void render(TileLayer tileLayer, TileView view, IVertexSink sink) {
+				final TileView.Range range = view.range(tileLayer);
+				tileLayer.renderCells(view, sink, range.cells[0], range.cells[1], range.cells[2], range.cells[3], range.chunks, true);
 			}
 		},
 
 		VIEW_TILES_VIEW_QUADS((byte) 3) {
 			@Override
-			public void render(TileLayer tileLayer, Batch batch) {
-				final float tileWidth = tileLayer.tileWidth * tileLayer.unitScale;
-				final float tileHeight = tileLayer.tileHeight * tileLayer.unitScale;
-				int col1 = Math.max(0, (int) ((tileLayer.viewBounds.x - tileLayer.offsetX) / (tileWidth)));
-				int col2 = Math.min(tileLayer.tilesX, (int) ((tileLayer.viewBounds.x + tileLayer.viewBounds.width) / (tileWidth)) + 1);
-				int row1 = Math.max(0, (int) ((tileLayer.viewBounds.y - tileLayer.offsetY) / (tileHeight)));
-				int row2 = Math.min(tileLayer.tilesY, (int) ((tileLayer.viewBounds.y + tileLayer.viewBounds.height) / (tileHeight)) + 1);
-				tileLayer.tilesRendered = 0;
-				tileLayer.quadsRendered = 0;
-				byte index;
-				for (int x = col1; x < col2; x++) {
-					for (int y = row1; y < row2; y++) {
-						if (tileLayer.tiles[x][y])
-							tileLayer.tilesRendered++;
-						index = tileLayer.indices[x][y];
-						if (index == zeroIndex)
-							continue;
-						tileLayer.quadsRendered++;
-						batch.draw(tileLayer.tileSet[index],
-							(tileLayer.offsetX + x * tileLayer.tileWidth) * tileLayer.unitScale,
-							(tileLayer.offsetY + y * tileLayer.tileHeight) * tileLayer.unitScale,
-							tileWidth, tileHeight
-						);
-					}
-				}
+			public void render(TileLayer tileLayer, TileView view, IVertexSink sink) {
+				final TileView.Range range = view.range(tileLayer);
+				tileLayer.renderCells(view, sink, range.cells[0], range.cells[1], range.cells[2], range.cells[3], range.chunks, false);
 			}
 		};
 
-		private final byte index;
+		final byte index;
 
 		RenderStrategy(byte index) {
 			this.index = index;
@@ -521,145 +844,27 @@ public class TileLayer {
 
 	public interface IRenderStrategy {
 
-		void render(TileLayer tileLayer, Batch batch);
+		/* Counts of the tiles and quads rendered are to be added to the view's. */
+		void render(TileLayer tileLayer, TileView view, IVertexSink sink);
 
 	}
 
-	public enum CompressionStrategy implements ICompressionStrategy {
+	/* Receives the quads of a layer, in the order they are to be drawn. Batch has a matching draw method to forward to. */
+	public interface IVertexSink {
 
-		BIT_COMPRESSED((byte) 0) {
-			@Override
-			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) {
-				int totalBits = tilesX * tilesY;
-				int totalBytes = (totalBits + 7) / 8;
-				byte[] bytes = new byte[totalBytes];
-
-				int bitIndex = 0;
-				for (int y = 0; y < tilesY; y++) {
-					for (boolean[] tile : tiles) {
-						if (tile[y])
-							bytes[bitIndex / 8] |= (byte) (1 << (bitIndex % 8));
-						bitIndex++;
-					}
-				}
-				return bytes;
-			}
-
-			@Override
-			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) {
-				boolean[][] tiles = new boolean[tilesX][tilesY];
-
-				int bitIndex = 0;
-				for (int y = 0; y < tilesY; y++) {
-					for (int x = 0; x < tilesX; x++) {
-						tiles[x][y] = (bytes[bitIndex / 8] & (1 << (bitIndex % 8))) != 0;
-						bitIndex++;
-					}
-				}
-				return tiles;
-			}
-		},
-		SPARSE_COMPRESSED((byte) 1) {
-			@Override
-			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException {
-				final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-				final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
-				for (int x = 0; x < tilesX; x++)
-					for (int y = 0; y < tilesY; y++) {
-						if (tiles[x][y]) {
-							dataOutputStream.writeShort(x);
-							dataOutputStream.writeShort(y);
-						}
-					}
-				final byte[] buffer = byteArrayOutputStream.toByteArray();
-				dataOutputStream.close();
-				return buffer;
-			}
-
-			@Override
-			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException {
-				final boolean[][] tiles = new boolean[tilesX][tilesY];
-				final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-				final DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream);
-				while (dataInputStream.available() > 0) {
-					int x = dataInputStream.readShort();
-					int y = dataInputStream.readShort();
-					tiles[x][y] = true;
-				}
-				return tiles;
-			}
-		},
-		RUN_LENGTH_COMPRESSED((byte) 2) {
-			@Override
-			public byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException {
-				final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-				final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
-				boolean lastValue = tiles[0][0];
-				int count = 0;
-				for (int y = 0; y < tilesY; y++) {
-					for (int x = 0; x < tilesX; x++) {
-						if (tiles[x][y] == lastValue) {
-							count++;
-						} else {
-							dataOutputStream.writeBoolean(lastValue);
-							dataOutputStream.writeShort(count);
-							lastValue = tiles[x][y];
-							count = 1;
-						}
-					}
-				}
-				dataOutputStream.writeBoolean(lastValue);
-				dataOutputStream.writeShort(count);
-				return byteArrayOutputStream.toByteArray();
-			}
-
-			@Override
-			public boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException {
-				final boolean[][] tiles = new boolean[tilesX][tilesY];
-				final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-				final DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream);
-
-				int x = 0, y = 0;
-				while (dataInputStream.available() > 0) {
-					boolean value = dataInputStream.readBoolean();
-					int count = dataInputStream.readShort();
-					for (int i = 0; i < count; i++) {
-						tiles[x][y] = value;
-						x++;
-						if (x >= tilesX) {
-							x = 0;
-							y++;
-						}
-					}
-				}
-				return tiles;
-			}
-		};
-
-		private final byte index;
-
-		CompressionStrategy(byte index) {
-			this.index = index;
-		}
-
-		public static CompressionStrategy fromIndex(byte b) {
-			if (b == 0)
-				return CompressionStrategy.BIT_COMPRESSED;
-			else if (b == 1)
-				return CompressionStrategy.SPARSE_COMPRESSED;
-			else if (b == 2)
-				return CompressionStrategy.RUN_LENGTH_COMPRESSED;
-			else
-				throw new IllegalArgumentException("Unknown compression strategy: " + b);
-		}
+		void draw(TextureRegion region, float x, float y, float width, float height);
 
 	}
 
-	public interface ICompressionStrategy {
+	/* Forwards to a Batch. */
+	static final class BatchSink implements IVertexSink {
 
-		byte[] compress(boolean[][] tiles, int tilesX, int tilesY) throws IOException;
+		Batch batch;
 
-		boolean[][] decompress(byte[] bytes, int tilesX, int tilesY) throws IOException;
+		@Override
+		public void draw(final TextureRegion region, final float x, final float y, final float width, final float height) {
+			batch.draw(region, x, y, width, height);
+		}
 
 	}
 
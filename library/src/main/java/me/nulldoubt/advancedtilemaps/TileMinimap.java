@@ -0,0 +1,232 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * A downsampled image of a stack of equally sized grids, each pixel covering cellsPerPixel x cellsPerPixel tiles.
+ * Only pixels over chunks edited since the last update are redrawn, their rectangles being reported for sub-image uploads.
+ * Rows are stored top to bottom like in a Pixmap, so the last row covers tile row 0.
+ */
+public class TileMinimap {
+
+	private final int tilesX;
+	private final int tilesY;
+	private final int cellsPerPixel;
+	private final Format format;
+	private final int width;
+	private final int height;
+	private final ByteBuffer pixels;
+
+	private final Array<TileGrid> layers = new Array<>();
+	private final IntArray colors = new IntArray();
+	private final Array<int[]> versions = new Array<>();
+	private final Array<int[]> counts = new Array<>();
+	private int background;
+
+	private final int chunksX;
+	private final boolean[] dirty;
+	private final IntArray rectangles = new IntArray();
+
+	public TileMinimap(final int tilesX, final int tilesY, final int cellsPerPixel, final Format format) {
+		if (cellsPerPixel < 1)
+			throw new IllegalArgumentException("cellsPerPixel must be positive: " + cellsPerPixel);
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		this.cellsPerPixel = cellsPerPixel;
+		this.format = format;
+		width = (tilesX + cellsPerPixel - 1) / cellsPerPixel;
+		height = (tilesY + cellsPerPixel - 1) / cellsPerPixel;
+		pixels = ByteBuffer.allocateDirect(width * height * format.bytes);
+		chunksX = (tilesX + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+		dirty = new boolean[chunksX * ((tilesY + CHUNK_SIZE - 1) >> CHUNK_SHIFT)];
+		invalidate();
+	}
+
+	public TileMinimap(final TileGrid tileGrid, final int cellsPerPixel, final Format format, final int rgba) {
+		this(tileGrid.getTilesX(), tileGrid.getTilesY(), cellsPerPixel, format);
+		addLayer(tileGrid, rgba);
+	}
+
+	/*
+	 * Layers added later are drawn over earlier ones. In RGBA8888, a pixel blends the color of each layer by the share of
+	 * its tiles being filled. In INDEXED8, it holds the 1-based index of the topmost layer filling at least half of them.
+	 */
+	public void addLayer(final TileGrid tileGrid, final int rgba) {
+		if (tileGrid.getTilesX() != tilesX || tileGrid.getTilesY() != tilesY)
+			throw new IllegalArgumentException("Expected a " + tilesX + "x" + tilesY + " grid, got " + tileGrid.getTilesX() + "x" + tileGrid.getTilesY());
+		if (format == Format.INDEXED8 && layers.size == 255)
+			throw new IllegalStateException("INDEXED8 holds at most 255 layers");
+		layers.add(tileGrid);
+		colors.add(rgba);
+		versions.add(new int[dirty.length]);
+		counts.add(new int[width]);
+		invalidate();
+	}
+
+	public void removeLayer(final TileGrid tileGrid) {
+		final int index = layers.indexOf(tileGrid, true);
+		if (index == -1)
+			return;
+		layers.removeIndex(index);
+		colors.removeIndex(index);
+		versions.removeIndex(index);
+		counts.removeIndex(index);
+		invalidate();
+	}
+
+	public int getBackground() {
+		return background;
+	}
+
+	/* RGBA8888 color of pixels not covered by any layer, transparent by default. */
+	public void setBackground(final int rgba) {
+		background = rgba;
+		invalidate();
+	}
+
+	/* Redraws everything on the next update. */
+	public void invalidate() {
+		Arrays.fill(dirty, true);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCellsPerPixel() {
+		return cellsPerPixel;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	/* width * height pixels of format.bytes each, row by row. */
+	public ByteBuffer getPixels() {
+		return pixels;
+	}
+
+	/* x, y, width and height in pixels of each rectangle redrawn by the last update. */
+	public IntArray getDirtyRectangles() {
+		return rectangles;
+	}
+
+	/* Redraws the pixels over chunks edited since the last update and returns the amount of dirty rectangles. */
+	public int update() {
+		for (int layer = 0; layer < layers.size; layer++) {
+			final TileGrid tileGrid = layers.get(layer);
+			final int[] seen = versions.get(layer);
+			for (int chunk = 0; chunk < dirty.length; chunk++) {
+				final int version = tileGrid.getChunkVersion(chunk % chunksX, chunk / chunksX);
+				if (seen[chunk] != version) {
+					seen[chunk] = version;
+					dirty[chunk] = true;
+				}
+			}
+		}
+
+		rectangles.clear();
+		for (int chunk = 0; chunk < dirty.length; chunk++) {
+			if (!dirty[chunk])
+				continue;
+			// Runs of dirty chunks along a chunk row make one rectangle.
+			int end = chunk + 1;
+			while (end < dirty.length && end % chunksX != 0 && dirty[end])
+				end++;
+			Arrays.fill(dirty, chunk, end, false);
+			final int chunkY = chunk / chunksX;
+			final int x1 = (chunk % chunksX) << CHUNK_SHIFT;
+			final int x2 = Math.min(tilesX, ((end - 1) % chunksX + 1) << CHUNK_SHIFT);
+			final int y1 = chunkY << CHUNK_SHIFT;
+			final int y2 = Math.min(tilesY, y1 + CHUNK_SIZE);
+			final int pixelX1 = x1 / cellsPerPixel, pixelX2 = (x2 + cellsPerPixel - 1) / cellsPerPixel;
+			final int pixelY1 = y1 / cellsPerPixel, pixelY2 = (y2 + cellsPerPixel - 1) / cellsPerPixel;
+			for (int pixelY = pixelY1; pixelY < pixelY2; pixelY++)
+				drawRow(pixelX1, pixelX2, pixelY);
+			rectangles.add(pixelX1, height - pixelY2, pixelX2 - pixelX1, pixelY2 - pixelY1);
+			chunk = end - 1;
+		}
+		return rectangles.size / 4;
+	}
+
+	/* Counts the filled tiles under each pixel of the layers by walking set bits, then blends them. */
+	private void drawRow(final int pixelX1, final int pixelX2, final int pixelY) {
+		final int x1 = pixelX1 * cellsPerPixel, x2 = Math.min(tilesX, pixelX2 * cellsPerPixel);
+		final int y1 = pixelY * cellsPerPixel, y2 = Math.min(tilesY, y1 + cellsPerPixel);
+		for (int layer = 0; layer < layers.size; layer++) {
+			final TileGrid tileGrid = layers.get(layer);
+			final int[] count = counts.get(layer);
+			Arrays.fill(count, pixelX1, pixelX2, 0);
+			for (int y = y1; y < y2; y++) {
+				for (int wordX = x1 >> CHUNK_SHIFT; wordX <= (x2 - 1) >> CHUNK_SHIFT; wordX++) {
+					final int base = wordX << CHUNK_SHIFT;
+					long bits = tileGrid.tileWord(wordX, y) & TileGrid.rangeMask(Math.max(x1 - base, 0), Math.min(x2 - base, 64));
+					while (bits != 0L) {
+						count[(base + Long.numberOfTrailingZeros(bits)) / cellsPerPixel]++;
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+
+		final int row = (height - 1 - pixelY) * width;
+		for (int pixelX = pixelX1; pixelX < pixelX2; pixelX++) {
+			final int area = (Math.min(tilesX, (pixelX + 1) * cellsPerPixel) - pixelX * cellsPerPixel) * (y2 - y1);
+			if (format == Format.INDEXED8) {
+				int index = 0;
+				for (int layer = layers.size - 1; layer >= 0 && index == 0; layer--)
+					if (counts.get(layer)[pixelX] * 2 >= area)
+						index = layer + 1;
+				pixels.put(row + pixelX, (byte) index);
+				continue;
+			}
+			int color = background;
+			for (int layer = 0; layer < layers.size; layer++)
+				color = blend(color, colors.get(layer), counts.get(layer)[pixelX], area);
+			pixels.putInt((row + pixelX) << 2, color);
+		}
+	}
+
+	/* Per channel, weight / total of the way from one color to another. */
+	private static int blend(final int from, final int to, final int weight, final int total) {
+		if (weight == 0)
+			return from;
+		if (weight == total)
+			return to;
+		int color = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			final int a = (from >>> shift) & 0xFF, b = (to >>> shift) & 0xFF;
+			color |= (a + (b - a) * weight / total) << shift;
+		}
+		return color;
+	}
+
+	public enum Format {
+
+		RGBA8888(4),
+		INDEXED8(1);
+
+		private final int bytes;
+
+		Format(final int bytes) {
+			this.bytes = bytes;
+		}
+
+		public int getBytes() {
+			return bytes;
+		}
+
+	}
+
+}
@@ -0,0 +1,497 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_MASK;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Shortest paths over the tiles of a grid in one state, moving in 8 directions without cutting corners.
+ * All buffers are kept between searches, so one instance per thread serves any amount of paths without allocating once
+ * warmed up. The state of tiles is allocated by chunk as searches first reach it, so its memory follows the area explored
+ * rather than the size of the grid. Results are cached until a chunk the search looked at is edited.
+ */
+public class TilePathfinder {
+
+	private static final float DIAGONAL = (float) Math.sqrt(2d);
+
+	private final TileGrid tileGrid;
+	private final boolean walkable;
+	private Algorithm algorithm = Algorithm.JUMP_POINT_SEARCH;
+
+	/* Per chunk, null until a search reaches it. */
+	private Nodes[] nodes;
+	private int search;
+	/* Set by locate. */
+	private Nodes located;
+	private int locatedIndex;
+
+	private int[] heap = new int[64];
+	private float[] keys = new float[64];
+	private int heapSize;
+
+	private int goalX, goalY;
+	private int minX, minY, maxX, maxY;
+	private float lastCost;
+	private int lastExpanded;
+
+	private long[] cacheKeys = new long[0];
+	private int[] cacheVersions;
+	private int[] cacheBounds;
+	private float[] cacheCosts;
+	private IntArray[] cachePaths;
+
+	public TilePathfinder(final TileGrid tileGrid, final boolean walkable) {
+		this.tileGrid = tileGrid;
+		this.walkable = walkable;
+	}
+
+	public TileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	/* The state of walkable tiles. */
+	public boolean isWalkable() {
+		return walkable;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public void setAlgorithm(final Algorithm algorithm) {
+		if (algorithm == null)
+			throw new IllegalArgumentException("Algorithm cannot be null");
+		this.algorithm = algorithm;
+		clearCache();
+	}
+
+	public int getCacheSize() {
+		return cacheKeys.length;
+	}
+
+	/* Amount of paths remembered, 0 to disable caching. */
+	public void setCacheSize(final int cacheSize) {
+		if (cacheSize < 0)
+			throw new IllegalArgumentException("Cache size cannot be negative");
+		cacheKeys = new long[cacheSize];
+		cacheVersions = new int[cacheSize];
+		cacheBounds = new int[cacheSize * 4];
+		cacheCosts = new float[cacheSize];
+		cachePaths = new IntArray[cacheSize];
+		for (int i = 0; i < cacheSize; i++)
+			cachePaths[i] = new IntArray();
+		clearCache();
+	}
+
+	public void clearCache() {
+		Arrays.fill(cacheKeys, -1L);
+	}
+
+	/* Cost of the last path found, 1 per straight and sqrt(2) per diagonal step. */
+	public float getLastCost() {
+		return lastCost;
+	}
+
+	/* Tiles expanded by the last search, 0 if its path came from the cache. */
+	public int getLastExpanded() {
+		return lastExpanded;
+	}
+
+	/*
+	 * Finds a shortest path from tile (x1, y1) to tile (x2, y2), replacing the contents of path with x and y of the start,
+	 * every tile the path turns on and the goal. Returns false, leaving path empty, if there is none.
+	 */
+	public boolean findPath(final int x1, final int y1, final int x2, final int y2, final IntArray path) {
+		path.clear();
+		lastExpanded = 0;
+		lastCost = 0f;
+		if (!isWalkable(x1, y1) || !isWalkable(x2, y2))
+			return false;
+
+		final int tilesX = tileGrid.getTilesX();
+		final long key = ((long) (x1 + y1 * tilesX) << 32) | (x2 + y2 * tilesX);
+		final int slot = cacheKeys.length == 0 ? -1 : (int) ((key * 0x9E3779B97F4A7C15L >>> 33) % cacheKeys.length);
+		if (slot != -1 && cacheKeys[slot] == key && isCacheValid(slot)) {
+			lastCost = cacheCosts[slot];
+			path.addAll(cachePaths[slot]);
+			return path.size > 0;
+		}
+
+		final boolean found = search(x1, y1, x2, y2, path);
+		if (slot != -1) {
+			cacheKeys[slot] = key;
+			cacheVersions[slot] = tileGrid.getVersion();
+			cacheBounds[slot * 4] = minX >> CHUNK_SHIFT;
+			cacheBounds[slot * 4 + 1] = minY >> CHUNK_SHIFT;
+			cacheBounds[slot * 4 + 2] = maxX >> CHUNK_SHIFT;
+			cacheBounds[slot * 4 + 3] = maxY >> CHUNK_SHIFT;
+			cacheCosts[slot] = lastCost;
+			cachePaths[slot].clear();
+			cachePaths[slot].addAll(path);
+		}
+		return found;
+	}
+
+	/* A cached path stays valid until a chunk within the bounds of the tiles its search looked at is edited. */
+	private boolean isCacheValid(final int slot) {
+		final int version = cacheVersions[slot];
+		if (tileGrid.getVersion() == version)
+			return true;
+		final int chunksX = tileGrid.getChunksX(), chunksY = tileGrid.getChunksY();
+		final int chunkX2 = Math.min(chunksX - 1, cacheBounds[slot * 4 + 2]);
+		final int chunkY2 = Math.min(chunksY - 1, cacheBounds[slot * 4 + 3]);
+		for (int chunkY = Math.max(0, cacheBounds[slot * 4 + 1]); chunkY <= chunkY2; chunkY++)
+			for (int chunkX = Math.max(0, cacheBounds[slot * 4]); chunkX <= chunkX2; chunkX++)
+				if (tileGrid.getChunkVersion(chunkX, chunkY) - version > 0) {
+					cacheKeys[slot] = -1L;
+					return false;
+				}
+		cacheVersions[slot] = tileGrid.getVersion();
+		return true;
+	}
+
+	private boolean search(final int x1, final int y1, final int x2, final int y2, final IntArray path) {
+		final int tilesX = tileGrid.getTilesX();
+		final int chunks = tileGrid.getChunksX() * tileGrid.getChunksY();
+		if (nodes == null || nodes.length != chunks) {
+			nodes = new Nodes[chunks];
+			search = 0;
+		}
+		if (++search == 0) {
+			for (final Nodes chunk : nodes) {
+				if (chunk != null) {
+					Arrays.fill(chunk.opened, 0);
+					Arrays.fill(chunk.closed, 0);
+				}
+			}
+			search = 1;
+		}
+
+		goalX = x2;
+		goalY = y2;
+		minX = maxX = x1;
+		minY = maxY = y1;
+		heapSize = 0;
+		final int start = x1 + y1 * tilesX;
+		final int goal = x2 + y2 * tilesX;
+		open(start, -1, 0f, x1, y1);
+
+		while (heapSize > 0) {
+			final int node = pop();
+			final int x = node % tilesX, y = node / tilesX;
+			locate(x, y);
+			if (located.closed[locatedIndex] == search)
+				continue;
+			located.closed[locatedIndex] = search;
+			lastExpanded++;
+			if (node == goal) {
+				lastCost = located.costs[locatedIndex];
+				tracePath(node, path);
+				return true;
+			}
+			touch(x - 1, y - 1);
+			touch(x + 1, y + 1);
+			if (algorithm == Algorithm.A_STAR)
+				expandNeighbors(node, x, y);
+			else
+				expandJumpPoints(node, x, y);
+		}
+		return false;
+	}
+
+	private void expandNeighbors(final int node, final int x, final int y) {
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++)
+				if ((dx != 0 || dy != 0) && canStep(x, y, dx, dy))
+					open(node, x + dx, y + dy);
+	}
+
+	/* Jumps in the directions not pruned given the one the node was reached from, opening every jump point found. */
+	private void expandJumpPoints(final int node, final int x, final int y) {
+		final int parent = parentOf(x, y);
+		if (parent == -1) {
+			for (int dy = -1; dy <= 1; dy++)
+				for (int dx = -1; dx <= 1; dx++)
+					if (dx != 0 || dy != 0)
+						jumpFrom(node, x, y, dx, dy);
+			return;
+		}
+		final int tilesX = tileGrid.getTilesX();
+		final int dx = Integer.signum(x - parent % tilesX), dy = Integer.signum(y - parent / tilesX);
+		if (dx != 0 && dy != 0) {
+			jumpFrom(node, x, y, dx, 0);
+			jumpFrom(node, x, y, 0, dy);
+			jumpFrom(node, x, y, dx, dy);
+		} else if (dx != 0) {
+			jumpFrom(node, x, y, dx, 0);
+			for (int side = -1; side <= 1; side += 2)
+				if (!isWalkable(x - dx, y + side) && isWalkable(x, y + side)) {
+					jumpFrom(node, x, y, 0, side);
+					jumpFrom(node, x, y, dx, side);
+				}
+		} else {
+			jumpFrom(node, x, y, 0, dy);
+			for (int side = -1; side <= 1; side += 2)
+				if (!isWalkable(x + side, y - dy) && isWalkable(x + side, y)) {
+					jumpFrom(node, x, y, side, 0);
+					jumpFrom(node, x, y, side, dy);
+				}
+		}
+	}
+
+	private void jumpFrom(final int node, final int x, final int y, final int dx, final int dy) {
+		final int jumpPoint;
+		if (dy == 0)
+			jumpPoint = dx > 0 ? jumpEast(x, y) : jumpWest(x, y);
+		else if (dx == 0)
+			jumpPoint = jumpVertical(x, y, dy);
+		else
+			jumpPoint = jumpDiagonal(x, y, dx, dy);
+		if (jumpPoint != -1)
+			open(node, jumpPoint % tileGrid.getTilesX(), jumpPoint / tileGrid.getTilesX());
+	}
+
+	/*
+	 * Stops on the goal or on a tile with an open side behind which the tile the jump came from is blocked.
+	 * Scans whole words of the row and the rows next to it at once.
+	 */
+	private int jumpEast(final int x, final int y) {
+		final int start = x + 1;
+		int wordX = start >> CHUNK_SHIFT;
+		long above = walkWord(wordX, y + 1), below = walkWord(wordX, y - 1);
+		long previousAbove = walkWord(wordX - 1, y + 1) >>> 63, previousBelow = walkWord(wordX - 1, y - 1) >>> 63;
+		long from = -1L << (start & CHUNK_MASK);
+		while (true) {
+			final long row = walkWord(wordX, y);
+			final long forced = (above & ~((above << 1) | previousAbove)) | (below & ~((below << 1) | previousBelow));
+			long events = ~row | forced;
+			if (y == goalY && goalX >> CHUNK_SHIFT == wordX)
+				events |= 1L << (goalX & CHUNK_MASK);
+			events &= from;
+			if (events != 0L) {
+				final int bit = Long.numberOfTrailingZeros(events);
+				final int end = (wordX << CHUNK_SHIFT) + bit;
+				touch(end, y - 1);
+				touch(end, y + 1);
+				return (row & (1L << bit)) == 0L ? -1 : end + y * tileGrid.getTilesX();
+			}
+			previousAbove = above >>> 63;
+			previousBelow = below >>> 63;
+			wordX++;
+			above = walkWord(wordX, y + 1);
+			below = walkWord(wordX, y - 1);
+			from = -1L;
+		}
+	}
+
+	private int jumpWest(final int x, final int y) {
+		final int start = x - 1;
+		int wordX = start >> CHUNK_SHIFT;
+		long above = walkWord(wordX, y + 1), below = walkWord(wordX, y - 1);
+		long nextAbove = walkWord(wordX + 1, y + 1) << 63, nextBelow = walkWord(wordX + 1, y - 1) << 63;
+		long from = -1L >>> (63 - (start & CHUNK_MASK));
+		while (true) {
+			final long row = walkWord(wordX, y);
+			final long forced = (above & ~((above >>> 1) | nextAbove)) | (below & ~((below >>> 1) | nextBelow));
+			long events = ~row | forced;
+			if (y == goalY && goalX >> CHUNK_SHIFT == wordX)
+				events |= 1L << (goalX & CHUNK_MASK);
+			events &= from;
+			if (events != 0L) {
+				final int bit = 63 - Long.numberOfLeadingZeros(events);
+				final int end = (wordX << CHUNK_SHIFT) + bit;
+				touch(end, y - 1);
+				touch(end, y + 1);
+				return (row & (1L << bit)) == 0L ? -1 : end + y * tileGrid.getTilesX();
+			}
+			nextAbove = above << 63;
+			nextBelow = below << 63;
+			wordX--;
+			above = walkWord(wordX, y + 1);
+			below = walkWord(wordX, y - 1);
+			from = -1L;
+		}
+	}
+
+	private int jumpVertical(final int x, int y, final int dy) {
+		while (true) {
+			y += dy;
+			touch(x - 1, y);
+			touch(x + 1, y);
+			if (!isWalkable(x, y))
+				return -1;
+			if ((x == goalX && y == goalY)
+				|| (isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy))
+				|| (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy)))
+				return x + y * tileGrid.getTilesX();
+		}
+	}
+
+	/* Stops on the goal or where a straight jump along either component of the direction finds a jump point. */
+	private int jumpDiagonal(int x, int y, final int dx, final int dy) {
+		while (canStep(x, y, dx, dy)) {
+			x += dx;
+			y += dy;
+			touch(x, y);
+			if ((x == goalX && y == goalY)
+				|| (dx > 0 ? jumpEast(x, y) : jumpWest(x, y)) != -1
+				|| jumpVertical(x, y, dy) != -1)
+				return x + y * tileGrid.getTilesX();
+		}
+		return -1;
+	}
+
+	private boolean canStep(final int x, final int y, final int dx, final int dy) {
+		if (!isWalkable(x + dx, y + dy))
+			return false;
+		return dx == 0 || dy == 0 || (isWalkable(x + dx, y) && isWalkable(x, y + dy));
+	}
+
+	private boolean isWalkable(final int x, final int y) {
+		return !tileGrid.isOutOfBounds(x, y) && tileGrid.isSet(x, y) == walkable;
+	}
+
+	/* Bits of the walkable tiles of a word, tiles out of bounds being blocked. */
+	private long walkWord(final int wordX, final int y) {
+		if (wordX < 0 || y < 0 || wordX >= tileGrid.getChunksX() || y >= tileGrid.getTilesY())
+			return 0L;
+		final long word = tileGrid.tileWord(wordX, y);
+		return walkable ? word : ~word & tileGrid.validMask(wordX);
+	}
+
+	private void touch(final int x, final int y) {
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+	}
+
+	private void open(final int parent, final int x, final int y) {
+		final int tilesX = tileGrid.getTilesX();
+		final int px = parent % tilesX, py = parent / tilesX;
+		locate(px, py);
+		open(x + y * tilesX, parent, located.costs[locatedIndex] + distance(px, py, x, y), x, y);
+	}
+
+	private void open(final int node, final int parent, final float cost, final int x, final int y) {
+		locate(x, y);
+		final Nodes state = located;
+		final int index = locatedIndex;
+		if (state.closed[index] == search || (state.opened[index] == search && state.costs[index] <= cost))
+			return;
+		state.opened[index] = search;
+		state.costs[index] = cost;
+		state.parents[index] = parent;
+		push(node, cost + distance(x, y, goalX, goalY));
+	}
+
+	private int parentOf(final int x, final int y) {
+		locate(x, y);
+		return located.parents[locatedIndex];
+	}
+
+	/* Points located and locatedIndex at the state of the tile, allocating the state of its chunk on first touch. */
+	private void locate(final int x, final int y) {
+		final int chunk = (x >> CHUNK_SHIFT) + (y >> CHUNK_SHIFT) * tileGrid.getChunksX();
+		Nodes chunkNodes = nodes[chunk];
+		if (chunkNodes == null)
+			nodes[chunk] = chunkNodes = new Nodes();
+		located = chunkNodes;
+		locatedIndex = (x & CHUNK_MASK) | ((y & CHUNK_MASK) << CHUNK_SHIFT);
+	}
+
+	/* Octile distance, exact for the straight and diagonal segments between jump points. */
+	private static float distance(final int x1, final int y1, final int x2, final int y2) {
+		final int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1);
+		return Math.max(dx, dy) + (DIAGONAL - 1f) * Math.min(dx, dy);
+	}
+
+	private void tracePath(int node, final IntArray path) {
+		final int tilesX = tileGrid.getTilesX();
+		int lastDx = 0, lastDy = 0;
+		while (node != -1) {
+			final int x = node % tilesX, y = node / tilesX;
+			if (path.size >= 2) {
+				final int dx = Integer.signum(path.get(path.size - 2) - x), dy = Integer.signum(path.get(path.size - 1) - y);
+				if (path.size >= 4 && dx == lastDx && dy == lastDy) {
+					path.set(path.size - 2, x);
+					path.set(path.size - 1, y);
+					node = parentOf(x, y);
+					continue;
+				}
+				lastDx = dx;
+				lastDy = dy;
+			}
+			path.add(x, y);
+			node = parentOf(x, y);
+		}
+		for (int i = 0, j = path.size - 2; i < j; i += 2, j -= 2) {
+			final int x = path.get(i), y = path.get(i + 1);
+			path.set(i, path.get(j));
+			path.set(i + 1, path.get(j + 1));
+			path.set(j, x);
+			path.set(j + 1, y);
+		}
+	}
+
+	private void push(final int node, final float key) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize << 1);
+			keys = Arrays.copyOf(keys, heapSize << 1);
+		}
+		int index = heapSize++;
+		while (index > 0) {
+			final int parent = (index - 1) >> 1;
+			if (keys[parent] <= key)
+				break;
+			heap[index] = heap[parent];
+			keys[index] = keys[parent];
+			index = parent;
+		}
+		heap[index] = node;
+		keys[index] = key;
+	}
+
+	private int pop() {
+		final int top = heap[0];
+		final int node = heap[--heapSize];
+		final float key = keys[heapSize];
+		int index = 0;
+		while (true) {
+			int child = (index << 1) + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && keys[child + 1] < keys[child])
+				child++;
+			if (keys[child] >= key)
+				break;
+			heap[index] = heap[child];
+			keys[index] = keys[child];
+			index = child;
+		}
+		heap[index] = node;
+		keys[index] = key;
+		return top;
+	}
+
+	/* State of the tiles of a chunk, valid while the stamps match the current search. */
+	private static final class Nodes {
+
+		private final int[] opened = new int[CHUNK_SIZE * CHUNK_SIZE];
+		private final int[] closed = new int[CHUNK_SIZE * CHUNK_SIZE];
+		private final float[] costs = new float[CHUNK_SIZE * CHUNK_SIZE];
+		private final int[] parents = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+	}
+
+	public enum Algorithm {
+		A_STAR,
+		/* A* expanding only the tiles where an optimal path may have to turn, found by scanning rows and columns. */
+		JUMP_POINT_SEARCH
+	}
+
+}
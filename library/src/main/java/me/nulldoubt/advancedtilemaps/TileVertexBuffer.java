@@ -0,0 +1,203 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import me.nulldoubt.advancedtilemaps.TileLayer.IVertexSink;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+
+/*
+ * Vertex sink generating the quads of each visible chunk in parallel into its own float array, laid out like SpriteBatch
+ * vertices, and submitting all of them to a Batch in the order a sequential render would have drawn them.
+ * Arrays are kept between frames, so once warmed up rendering only allocates the fork-join tasks.
+ * See TileLayer#render(Batch, TileVertexBuffer). A buffer must not be used by two threads at once.
+ */
+public class TileVertexBuffer implements IVertexSink {
+
+	private static final int QUAD = 20;
+
+	private final Array<Segment> segments = new Array<>();
+	private int used;
+	private Segment direct;
+	private float color;
+
+	void begin(final float color) {
+		this.color = color;
+		used = 0;
+		direct = null;
+	}
+
+	/* Quads drawn directly, e.g. by custom render strategies, are kept in order with the chunks around them. */
+	@Override
+	public void draw(final TextureRegion region, final float x, final float y, final float width, final float height) {
+		if (direct == null)
+			direct = next();
+		direct.draw(region, x, y, width, height, color);
+	}
+
+	/*
+	 * Renders the chunks, or each chunk overlapping the cells [col1, col2) x [row1, row2) if null, into a segment of its
+	 * own, returning the amount of quads.
+	 */
+	int renderChunks(final TileLayer tileLayer, final IntArray chunks, final int col1, final int col2, final int row1, final int row2, final boolean allQuads) {
+		direct = null;
+		final int first = used;
+		if (chunks != null) {
+			final int chunksX = tileLayer.getChunksX();
+			for (int i = 0; i < chunks.size; i++) {
+				final Segment segment = next();
+				segment.chunkX = chunks.get(i) % chunksX;
+				segment.chunkY = chunks.get(i) / chunksX;
+			}
+		} else {
+			for (int chunkY = row1 >> CHUNK_SHIFT; chunkY <= (row2 - 1) >> CHUNK_SHIFT; chunkY++) {
+				for (int chunkX = col1 >> CHUNK_SHIFT; chunkX <= (col2 - 1) >> CHUNK_SHIFT; chunkX++) {
+					final Segment segment = next();
+					segment.chunkX = chunkX;
+					segment.chunkY = chunkY;
+				}
+			}
+		}
+		ForkJoinPool.commonPool().invoke(new ChunkTask(this, tileLayer, first, used, col1, col2, row1, row2, allQuads));
+		int quads = 0;
+		for (int i = first; i < used; i++)
+			quads += segments.get(i).quads;
+		return quads;
+	}
+
+	void end(final Batch batch) {
+		for (int i = 0; i < used; i++)
+			segments.get(i).submit(batch);
+		direct = null;
+	}
+
+	private Segment next() {
+		if (used == segments.size)
+			segments.add(new Segment());
+		final Segment segment = segments.get(used++);
+		segment.clear();
+		return segment;
+	}
+
+	/* Quads of one chunk, split into runs of the same texture. */
+	private static final class Segment implements IVertexSink {
+
+		private float[] vertices = new float[QUAD * 64];
+		private int size;
+		private final Array<Texture> textures = new Array<>();
+		private final IntArray ends = new IntArray();
+		private int chunkX, chunkY;
+		private int quads;
+		private float color;
+
+		private void clear() {
+			size = 0;
+			textures.clear();
+			ends.clear();
+			quads = 0;
+		}
+
+		@Override
+		public void draw(final TextureRegion region, final float x, final float y, final float width, final float height) {
+			draw(region, x, y, width, height, color);
+		}
+
+		private void draw(final TextureRegion region, final float x, final float y, final float width, final float height, final float color) {
+			if (size + QUAD > vertices.length)
+				vertices = Arrays.copyOf(vertices, vertices.length << 1);
+			final Texture texture = region.getTexture();
+			if (textures.size == 0 || textures.peek() != texture) {
+				textures.add(texture);
+				ends.add(size);
+			}
+			final float x2 = x + width, y2 = y + height;
+			final float u = region.getU(), v = region.getV2(), u2 = region.getU2(), v2 = region.getV();
+			final float[] vertices = this.vertices;
+			int i = size;
+			vertices[i++] = x;
+			vertices[i++] = y;
+			vertices[i++] = color;
+			vertices[i++] = u;
+			vertices[i++] = v;
+
+			vertices[i++] = x;
+			vertices[i++] = y2;
+			vertices[i++] = color;
+			vertices[i++] = u;
+			vertices[i++] = v2;
+
+			vertices[i++] = x2;
+			vertices[i++] = y2;
+			vertices[i++] = color;
+			vertices[i++] = u2;
+			vertices[i++] = v2;
+
+			vertices[i++] = x2;
+			vertices[i++] = y;
+			vertices[i++] = color;
+			vertices[i++] = u2;
+			vertices[i] = v;
+			size += QUAD;
+			ends.set(ends.size - 1, size);
+		}
+
+		private void submit(final Batch batch) {
+			int start = 0;
+			for (int run = 0; run < textures.size; run++) {
+				final int end = ends.get(run);
+				batch.draw(textures.get(run), vertices, start, end - start);
+				start = end;
+			}
+		}
+
+	}
+
+	private static class ChunkTask extends RecursiveAction {
+
+		private final TileVertexBuffer buffer;
+		private final TileLayer tileLayer;
+		private final int from;
+		private final int to;
+		private final int col1, col2, row1, row2;
+		private final boolean allQuads;
+
+		private ChunkTask(TileVertexBuffer buffer, TileLayer tileLayer, int from, int to, int col1, int col2, int row1, int row2, boolean allQuads) {
+			this.buffer = buffer;
+			this.tileLayer = tileLayer;
+			this.from = from;
+			this.to = to;
+			this.col1 = col1;
+			this.col2 = col2;
+			this.row1 = row1;
+			this.row2 = row2;
+			this.allQuads = allQuads;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(
+					new ChunkTask(buffer, tileLayer, from, middle, col1, col2, row1, row2, allQuads),
+					new ChunkTask(buffer, tileLayer, middle, to, col1, col2, row1, row2, allQuads)
+				);
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				final Segment segment = buffer.segments.get(i);
+				segment.color = buffer.color;
+				segment.quads = tileLayer.renderChunk(segment, segment.chunkX, segment.chunkY, col1, col2, row1, row2, allQuads);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,177 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SHIFT;
+import static me.nulldoubt.advancedtilemaps.TileGrid.CHUNK_SIZE;
+
+/*
+ * Named view bounds, e.g. of a main camera, a split-screen camera or a minimap, to render any amount of layers through
+ * without changing their own view. The visible cells and chunks are cached per layer geometry, shared by all layers of
+ * the same size, tile size and position, and only recomputed once the bounds cross a tile boundary.
+ * Rendering through a view doesn't modify the layer, so several views may render a layer on different threads as long
+ * as it keeps every chunk expanded (see TileGrid#setHotChunks). A single view must not be used by two threads at once.
+ */
+public class TileView {
+
+	/* Ranges cached at most, least recently used ones being replaced beyond that. */
+	private static final int CAPACITY = 32;
+
+	private final String name;
+	private final Rectangle bounds;
+	private final Array<Range> ranges;
+	private int uses;
+
+	final TileLayer.BatchSink batchSink;
+	int tilesRendered;
+	int quadsRendered;
+
+	public TileView(final String name) {
+		this.name = name;
+		bounds = new Rectangle();
+		ranges = new Array<>();
+		batchSink = new TileLayer.BatchSink();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/* May be modified directly, cached ranges notice the change. */
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	public void set(final OrthographicCamera camera) {
+		TileLayer.viewBounds(camera, bounds);
+	}
+
+	public void set(final float x, final float y, final float width, final float height) {
+		bounds.set(x, y, width, height);
+	}
+
+	/* Summed over all layers since the last reset. */
+	public int getTilesRendered() {
+		return tilesRendered;
+	}
+
+	/* Summed over all layers since the last reset. */
+	public int getQuadsRendered() {
+		return quadsRendered;
+	}
+
+	/* Layers add to the counts as they render, e.g. reset once per frame to count all layers drawn through the view. */
+	public void resetCounts() {
+		tilesRendered = 0;
+		quadsRendered = 0;
+	}
+
+	/* The visible cells of the layer as {col1, col2, row1, row2}, to be treated as read-only. */
+	public int[] getCells(final TileLayer tileLayer) {
+		return range(tileLayer).cells;
+	}
+
+	/* Chunk indices (chunkX + chunkY * chunksX) overlapping the visible cells of the layer, to be treated as read-only. */
+	public IntArray getChunks(final TileLayer tileLayer) {
+		return range(tileLayer).chunks;
+	}
+
+	Range range(final TileLayer tileLayer) {
+		return range(tileLayer.getTilesX(), tileLayer.getTilesY(),
+			tileLayer.getTileWidth() * tileLayer.getUnitScale(), tileLayer.getTileHeight() * tileLayer.getUnitScale(),
+			tileLayer.getPositionX(), tileLayer.getPositionY(), tileLayer.getOffsetX(), tileLayer.getOffsetY()
+		);
+	}
+
+	Range range(final int tilesX, final int tilesY, final float tileWidth, final float tileHeight, final float positionX, final float positionY, final float offsetX, final float offsetY) {
+		Range range = null;
+		for (int i = 0; i < ranges.size && range == null; i++)
+			if (ranges.get(i).matches(tilesX, tilesY, tileWidth, tileHeight, positionX, positionY, offsetX, offsetY))
+				range = ranges.get(i);
+		if (range == null) {
+			if (ranges.size < CAPACITY) {
+				range = new Range();
+				ranges.add(range);
+			} else {
+				range = ranges.first();
+				for (final Range other : ranges)
+					if (other.used < range.used)
+						range = other;
+			}
+			range.set(tilesX, tilesY, tileWidth, tileHeight, positionX, positionY, offsetX, offsetY);
+		}
+		range.used = ++uses;
+		range.update(bounds);
+		return range;
+	}
+
+	/* The visible cells and chunks of one layer geometry. */
+	static final class Range {
+
+		private int tilesX, tilesY;
+		private float tileWidth, tileHeight;
+		private float positionX, positionY;
+		private float offsetX, offsetY;
+		private int used;
+
+		private float x, y, width, height;
+		private boolean valid;
+
+		final int[] cells = new int[4];
+		final IntArray chunks = new IntArray();
+
+		private boolean matches(int tilesX, int tilesY, float tileWidth, float tileHeight, float positionX, float positionY, float offsetX, float offsetY) {
+			return this.tilesX == tilesX && this.tilesY == tilesY && this.tileWidth == tileWidth && this.tileHeight == tileHeight
+				&& this.positionX == positionX && this.positionY == positionY && this.offsetX == offsetX && this.offsetY == offsetY;
+		}
+
+		private void set(int tilesX, int tilesY, float tileWidth, float tileHeight, float positionX, float positionY, float offsetX, float offsetY) {
+			this.tilesX = tilesX;
+			this.tilesY = tilesY;
+			this.tileWidth = tileWidth;
+			this.tileHeight = tileHeight;
+			this.positionX = positionX;
+			this.positionY = positionY;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			valid = false;
+		}
+
+		private void update(final Rectangle bounds) {
+			if (valid && bounds.x == x && bounds.y == y && bounds.width == width && bounds.height == height)
+				return;
+			x = bounds.x;
+			y = bounds.y;
+			width = bounds.width;
+			height = bounds.height;
+
+			final float viewX = x - positionX;
+			final float viewY = y - positionY;
+			final int col1 = Math.max(0, (int) ((viewX - offsetX) / tileWidth));
+			final int col2 = Math.min(tilesX, (int) ((viewX + width) / tileWidth) + 1);
+			final int row1 = Math.max(0, (int) ((viewY - offsetY) / tileHeight));
+			final int row2 = Math.min(tilesY, (int) ((viewY + height) / tileHeight) + 1);
+			// Moving within a tile keeps the same cells, and thereby the same chunks.
+			if (valid && col1 == cells[0] && col2 == cells[1] && row1 == cells[2] && row2 == cells[3])
+				return;
+			valid = true;
+			cells[0] = col1;
+			cells[1] = col2;
+			cells[2] = row1;
+			cells[3] = row2;
+
+			chunks.clear();
+			if (col1 >= col2 || row1 >= row2)
+				return;
+			final int chunksX = (tilesX + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+			for (int chunkY = row1 >> CHUNK_SHIFT; chunkY <= (row2 - 1) >> CHUNK_SHIFT; chunkY++)
+				for (int chunkX = col1 >> CHUNK_SHIFT; chunkX <= (col2 - 1) >> CHUNK_SHIFT; chunkX++)
+					chunks.add(chunkX + chunkY * chunksX);
+		}
+
+	}
+
+}
@@ -0,0 +1,494 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.LongMap;
+import me.nulldoubt.advancedtilemaps.TileGrid.CompressionStrategy;
+import me.nulldoubt.advancedtilemaps.TileGrid.Neighbor;
+import me.nulldoubt.advancedtilemaps.TileLayer.IRenderStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * An unbounded layer streamed from region files as chunk-sized TileLayer shards, stitched to their loaded neighbors.
+ * Chunks around the view stay loaded, chunks ahead of the view's motion are prefetched in the background, and the
+ * least recently visible chunks exceeding the memory budget are saved and evicted.
+ */
+public class WorldLayer implements Disposable {
+
+	private final File directory;
+	private final int chunkTiles;
+	private final float tileWidth;
+	private final float tileHeight;
+	private final float unitScale;
+	private final int memoryBudget;
+	private int prefetchDistance;
+
+	private final LongMap<Chunk> chunks;
+	private final LongMap<RegionFile> regions;
+	private final LongMap<Request> requests;
+	private final ConcurrentLinkedQueue<Request> completed;
+	private final ExecutorService executor;
+
+	/* Loaded chunks from most to least recently visible. */
+	private Chunk head;
+	private Chunk tail;
+
+	private final TextureRegion[] tileSet;
+	private final TileView view;
+	private final Rectangle viewBounds;
+	private Texture texture;
+
+	private Texture overlayTexture;
+	private ShaderProgram overlayShaderProgram;
+	private boolean overlayed;
+	private float overlayScale;
+
+	private IRenderStrategy renderStrategy;
+	private CompressionStrategy compressionStrategy;
+
+	/* Visible chunks, including a margin of one chunk so that visible edges are always stitched. */
+	private int chunkX1, chunkY1, chunkX2, chunkY2;
+	private float lastCenterX, lastCenterY;
+	private boolean hasView;
+
+	public WorldLayer(FileHandle directory, int chunkTiles, float tileWidth, float tileHeight, float unitScale, int memoryBudget) {
+		this(directory.file(), chunkTiles, tileWidth, tileHeight, unitScale, memoryBudget);
+	}
+
+	/* The memory budget is the amount of chunks kept loaded besides the visible ones. */
+	public WorldLayer(File directory, int chunkTiles, float tileWidth, float tileHeight, float unitScale, int memoryBudget) {
+		if (chunkTiles < 1)
+			throw new IllegalArgumentException("chunkTiles must be positive: " + chunkTiles);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new GdxRuntimeException("Unable to create world directory: " + directory);
+		this.directory = directory;
+		this.chunkTiles = chunkTiles;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.unitScale = unitScale;
+		this.memoryBudget = memoryBudget;
+		prefetchDistance = 2;
+
+		chunks = new LongMap<>();
+		regions = new LongMap<>();
+		requests = new LongMap<>();
+		completed = new ConcurrentLinkedQueue<>();
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "WorldLayer-Prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		tileSet = new TextureRegion[16];
+		view = new TileView("default");
+		viewBounds = view.getBounds();
+		renderStrategy = TileLayer.getDefaultRenderStrategy();
+		compressionStrategy = CompressionStrategy.RUN_LENGTH_COMPRESSED;
+	}
+
+	public int getChunkTiles() {
+		return chunkTiles;
+	}
+
+	public float getTileWidth() {
+		return tileWidth;
+	}
+
+	public float getTileHeight() {
+		return tileHeight;
+	}
+
+	public float getUnitScale() {
+		return unitScale;
+	}
+
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public int getPrefetchDistance() {
+		return prefetchDistance;
+	}
+
+	/* Amount of chunks ahead of the view's motion to load in the background, 0 disables prefetching. */
+	public void setPrefetchDistance(int prefetchDistance) {
+		this.prefetchDistance = prefetchDistance;
+	}
+
+	public int getLoadedChunks() {
+		return chunks.size;
+	}
+
+	public int getPendingChunks() {
+		return requests.size;
+	}
+
+	public boolean isLoaded(final int chunkX, final int chunkY) {
+		return chunks.containsKey(key(chunkX, chunkY));
+	}
+
+	public IRenderStrategy getRenderStrategy() {
+		return renderStrategy;
+	}
+
+	public void setRenderStrategy(IRenderStrategy renderStrategy) {
+		this.renderStrategy = renderStrategy;
+	}
+
+	public CompressionStrategy getCompressionStrategy() {
+		return compressionStrategy;
+	}
+
+	/* Used for chunks saved from now on, chunks saved before keep their own. */
+	public void setCompressionStrategy(CompressionStrategy compressionStrategy) {
+		this.compressionStrategy = compressionStrategy;
+	}
+
+	public boolean hasTileSet() {
+		return texture != null;
+	}
+
+	public void setTileSet(final TextureRegion textureRegion) {
+		texture = textureRegion.getTexture();
+		TileLayer.createTileSet(textureRegion, tileWidth, tileHeight, tileSet);
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next)
+			chunk.layer.setTileSet(texture, tileSet);
+	}
+
+	public void setOverlay(Texture overlayTexture, ShaderProgram overlayShaderProgram) {
+		this.overlayTexture = overlayTexture;
+		this.overlayShaderProgram = overlayShaderProgram;
+		overlayed = (overlayTexture != null && overlayShaderProgram != null);
+		if (overlayed)
+			overlayScale = 1f / overlayTexture.getWidth();
+	}
+
+	public Rectangle getViewBounds() {
+		return viewBounds;
+	}
+
+	/* The view set by setView and rendered by render(Batch). */
+	public TileView getView() {
+		return view;
+	}
+
+	/* Of the last render through the world's own view. */
+	public int getTilesRendered() {
+		return view.getTilesRendered();
+	}
+
+	/* Of the last render through the world's own view. */
+	public int getQuadsRendered() {
+		return view.getQuadsRendered();
+	}
+
+	/* Loads the chunk synchronously if needed. */
+	public boolean tileAt(final int x, final int y) {
+		return chunk(Math.floorDiv(x, chunkTiles), Math.floorDiv(y, chunkTiles)).layer.tileAt(Math.floorMod(x, chunkTiles), Math.floorMod(y, chunkTiles));
+	}
+
+	/* Loads the chunk synchronously if needed. */
+	public void tileAt(final int x, final int y, final boolean state) {
+		chunk(Math.floorDiv(x, chunkTiles), Math.floorDiv(y, chunkTiles)).layer.tileAt(Math.floorMod(x, chunkTiles), Math.floorMod(y, chunkTiles), state);
+	}
+
+	/* Loads, prefetches and evicts chunks around the new view, call it once per frame before rendering! */
+	public void setView(OrthographicCamera camera) {
+		TileLayer.viewBounds(camera, viewBounds);
+		update();
+	}
+
+	/* Loads, prefetches and evicts chunks around the new view, call it once per frame before rendering! */
+	public void setView(float x, float y, float width, float height) {
+		viewBounds.set(x, y, width, height);
+		update();
+	}
+
+	private void update() {
+		Request request;
+		while ((request = completed.poll()) != null) {
+			final long key = key(request.chunkX, request.chunkY);
+			if (requests.get(key) != request)
+				continue;
+			requests.remove(key);
+			if (request.exception != null)
+				throw new GdxRuntimeException("Unable to load chunk " + request.chunkX + ", " + request.chunkY, request.exception);
+			load(request.chunkX, request.chunkY, request.tiles);
+		}
+
+		final float chunkWidth = chunkTiles * tileWidth * unitScale;
+		final float chunkHeight = chunkTiles * tileHeight * unitScale;
+		chunkX1 = (int) Math.floor(viewBounds.x / chunkWidth) - 1;
+		chunkY1 = (int) Math.floor(viewBounds.y / chunkHeight) - 1;
+		chunkX2 = (int) Math.floor((viewBounds.x + viewBounds.width) / chunkWidth) + 1;
+		chunkY2 = (int) Math.floor((viewBounds.y + viewBounds.height) / chunkHeight) + 1;
+
+		// Touching in reverse keeps the visible chunks at the front of the recency list.
+		for (int chunkY = chunkY2; chunkY >= chunkY1; chunkY--)
+			for (int chunkX = chunkX2; chunkX >= chunkX1; chunkX--)
+				touch(chunk(chunkX, chunkY));
+
+		final float centerX = viewBounds.x + viewBounds.width / 2f;
+		final float centerY = viewBounds.y + viewBounds.height / 2f;
+		if (hasView && prefetchDistance > 0) {
+			final int dx = (int) Math.signum(centerX - lastCenterX);
+			final int dy = (int) Math.signum(centerY - lastCenterY);
+			if (dx != 0 || dy != 0)
+				for (int distance = 1; distance <= prefetchDistance; distance++)
+					for (int chunkY = chunkY1 + distance * dy; chunkY <= chunkY2 + distance * dy; chunkY++)
+						for (int chunkX = chunkX1 + distance * dx; chunkX <= chunkX2 + distance * dx; chunkX++)
+							prefetch(chunkX, chunkY);
+		}
+		lastCenterX = centerX;
+		lastCenterY = centerY;
+		hasView = true;
+
+		final int visible = (chunkX2 - chunkX1 + 1) * (chunkY2 - chunkY1 + 1);
+		while (chunks.size > visible + memoryBudget && tail != null && !isVisible(tail))
+			evict(tail);
+	}
+
+	public void render(final Batch batch) {
+		if (!hasView)
+			return;
+		view.resetCounts();
+		render(batch, view);
+	}
+
+	/*
+	 * Renders the loaded chunks within the given view, adding to its counts. Only the view set by setView loads chunks,
+	 * so views beyond the loaded area, e.g. a minimap, should stay within it or show gaps.
+	 */
+	public void render(final Batch batch, final TileView view) {
+		if (texture == null)
+			return;
+		final Rectangle bounds = view.getBounds();
+		final float chunkWidth = chunkTiles * tileWidth * unitScale;
+		final float chunkHeight = chunkTiles * tileHeight * unitScale;
+		// Cells are offset by half a tile, so the last cells of a chunk reach into the chunks east and north of it.
+		final int chunkX1 = (int) Math.floor((bounds.x - tileWidth / 2f * unitScale) / chunkWidth);
+		final int chunkY1 = (int) Math.floor((bounds.y - tileHeight / 2f * unitScale) / chunkHeight);
+		final int chunkX2 = (int) Math.floor((bounds.x + bounds.width) / chunkWidth);
+		final int chunkY2 = (int) Math.floor((bounds.y + bounds.height) / chunkHeight);
+
+		if (overlayed)
+			TileLayer.beginOverlay(batch, texture, overlayTexture, overlayShaderProgram, overlayScale / unitScale);
+
+		view.batchSink.batch = batch;
+		for (int chunkY = chunkY1; chunkY <= chunkY2; chunkY++) {
+			for (int chunkX = chunkX1; chunkX <= chunkX2; chunkX++) {
+				final Chunk chunk = chunks.get(key(chunkX, chunkY));
+				if (chunk != null)
+					renderStrategy.render(chunk.layer, view, view.batchSink);
+			}
+		}
+		view.batchSink.batch = null;
+
+		if (overlayed)
+			batch.setShader(null);
+	}
+
+	/* Writes every chunk edited since it was loaded or last saved. */
+	public void save() {
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next)
+			save(chunk);
+	}
+
+	@Override
+	public void dispose() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		save();
+		synchronized (regions) {
+			for (final RegionFile region : regions.values()) {
+				try {
+					region.close();
+				} catch (IOException e) {
+					throw new GdxRuntimeException("Unable to close region file", e);
+				}
+			}
+			regions.clear();
+		}
+	}
+
+	private Chunk chunk(final int chunkX, final int chunkY) {
+		final Chunk chunk = chunks.get(key(chunkX, chunkY));
+		if (chunk != null)
+			return chunk;
+		requests.remove(key(chunkX, chunkY));
+		try {
+			return load(chunkX, chunkY, decode(region(chunkX, chunkY).read(chunkX, chunkY)));
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to load chunk " + chunkX + ", " + chunkY, e);
+		}
+	}
+
+	private void prefetch(final int chunkX, final int chunkY) {
+		final long key = key(chunkX, chunkY);
+		if (chunks.containsKey(key) || requests.containsKey(key))
+			return;
+		final Request request = new Request(chunkX, chunkY);
+		requests.put(key, request);
+		executor.execute(() -> {
+			try {
+				request.tiles = decode(region(chunkX, chunkY).read(chunkX, chunkY));
+			} catch (IOException e) {
+				request.exception = e;
+			}
+			completed.add(request);
+		});
+	}
+
+	private Chunk load(final int chunkX, final int chunkY, final boolean[][] tiles) {
+		final TileLayer layer = new TileLayer(chunkTiles, chunkTiles, tileWidth, tileHeight, unitScale, false);
+		layer.setPosition(chunkX * chunkTiles * tileWidth * unitScale, chunkY * chunkTiles * tileHeight * unitScale);
+		layer.setRenderStrategy(renderStrategy);
+		if (texture != null)
+			layer.setTileSet(texture, tileSet);
+		if (tiles != null)
+			layer.setTiles(tiles);
+
+		final Chunk chunk = new Chunk(chunkX, chunkY, layer);
+		chunk.savedVersion = layer.getVersion();
+		chunks.put(key(chunkX, chunkY), chunk);
+		for (final Neighbor neighbor : Neighbor.values()) {
+			final Chunk other = chunks.get(key(chunkX + neighbor.dx, chunkY + neighbor.dy));
+			if (other != null)
+				layer.link(neighbor, other.layer);
+		}
+
+		chunk.next = head;
+		if (head != null)
+			head.previous = chunk;
+		head = chunk;
+		if (tail == null)
+			tail = chunk;
+		return chunk;
+	}
+
+	private void evict(final Chunk chunk) {
+		save(chunk);
+		chunk.layer.unlinkAll();
+		unlist(chunk);
+		chunks.remove(key(chunk.chunkX, chunk.chunkY));
+	}
+
+	private void save(final Chunk chunk) {
+		final int version = chunk.layer.getVersion();
+		if (version == chunk.savedVersion)
+			return;
+		try {
+			final byte[] compressed = compressionStrategy.compress(chunk.layer.toArray(), chunkTiles, chunkTiles);
+			final byte[] data = new byte[compressed.length + 1];
+			data[0] = compressionStrategy.index;
+			System.arraycopy(compressed, 0, data, 1, compressed.length);
+			region(chunk.chunkX, chunk.chunkY).write(chunk.chunkX, chunk.chunkY, data);
+		} catch (IOException e) {
+			throw new GdxRuntimeException("Unable to save chunk " + chunk.chunkX + ", " + chunk.chunkY, e);
+		}
+		chunk.savedVersion = version;
+	}
+
+	private boolean[][] decode(final byte[] data) throws IOException {
+		if (data == null)
+			return null;
+		return CompressionStrategy.fromIndex(data[0]).decompress(Arrays.copyOfRange(data, 1, data.length), chunkTiles, chunkTiles);
+	}
+
+	/* Called from the prefetch thread as well. */
+	private RegionFile region(final int chunkX, final int chunkY) throws IOException {
+		final int regionX = chunkX >> RegionFile.REGION_SHIFT;
+		final int regionY = chunkY >> RegionFile.REGION_SHIFT;
+		synchronized (regions) {
+			RegionFile region = regions.get(key(regionX, regionY));
+			if (region == null) {
+				region = new RegionFile(new File(directory, "region." + regionX + "." + regionY + ".bin"));
+				regions.put(key(regionX, regionY), region);
+			}
+			return region;
+		}
+	}
+
+	private boolean isVisible(final Chunk chunk) {
+		return chunk.chunkX >= chunkX1 && chunk.chunkX <= chunkX2 && chunk.chunkY >= chunkY1 && chunk.chunkY <= chunkY2;
+	}
+
+	private void touch(final Chunk chunk) {
+		if (chunk == head)
+			return;
+		unlist(chunk);
+		chunk.next = head;
+		if (head != null)
+			head.previous = chunk;
+		head = chunk;
+		if (tail == null)
+			tail = chunk;
+	}
+
+	private void unlist(final Chunk chunk) {
+		if (chunk.previous != null)
+			chunk.previous.next = chunk.next;
+		else
+			head = chunk.next;
+		if (chunk.next != null)
+			chunk.next.previous = chunk.previous;
+		else
+			tail = chunk.previous;
+		chunk.previous = chunk.next = null;
+	}
+
+	private static long key(final int x, final int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private static final class Chunk {
+
+		private final int chunkX;
+		private final int chunkY;
+		private final TileLayer layer;
+		private int savedVersion;
+
+		private Chunk previous;
+		private Chunk next;
+
+		private Chunk(int chunkX, int chunkY, TileLayer layer) {
+			this.chunkX = chunkX;
+			this.chunkY = chunkY;
+			this.layer = layer;
+		}
+
+	}
+
+	private static final class Request {
+
+		private final int chunkX;
+		private final int chunkY;
+		private volatile boolean[][] tiles;
+		private volatile IOException exception;
+
+		private Request(int chunkX, int chunkY) {
+			this.chunkX = chunkX;
+			this.chunkY = chunkY;
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Graphics;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.FloatArray;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/*
+ * Records the quads drawn to a Batch as x, y, x2, y2, u, v, u2, v2, whether drawn as regions or as vertices, so that
+ * rendering can be checked without a GL context. Textures are created against a GL stub doing nothing.
+ */
+final class RecordingBatch {
+
+	static final int QUAD = 8;
+
+	final Batch batch;
+	final FloatArray quads = new FloatArray();
+
+	RecordingBatch() {
+		batch = (Batch) Proxy.newProxyInstance(Batch.class.getClassLoader(), new Class<?>[]{Batch.class}, (proxy, method, args) -> {
+			if (method.getName().equals("draw")) {
+				if (args.length == 5 && args[0] instanceof TextureRegion) {
+					final TextureRegion region = (TextureRegion) args[0];
+					final float x = (Float) args[1], y = (Float) args[2];
+					quads.addAll(x, y, x + (Float) args[3], y + (Float) args[4], region.getU(), region.getV(), region.getU2(), region.getV2());
+				} else if (args.length == 4 && args[1] instanceof float[]) {
+					final float[] vertices = (float[]) args[1];
+					final int offset = (Integer) args[2];
+					for (int i = offset; i < offset + (Integer) args[3]; i += 20)
+						quads.addAll(vertices[i], vertices[i + 1], vertices[i + 10], vertices[i + 6], vertices[i + 3], vertices[i + 9], vertices[i + 13], vertices[i + 4]);
+				} else {
+					throw new UnsupportedOperationException("Unexpected draw call with " + args.length + " arguments");
+				}
+				return null;
+			}
+			return defaultValue(method);
+		});
+	}
+
+	int size() {
+		return quads.size / QUAD;
+	}
+
+	float x(final int quad) {
+		return quads.get(quad * QUAD);
+	}
+
+	float y(final int quad) {
+		return quads.get(quad * QUAD + 1);
+	}
+
+	float u(final int quad) {
+		return quads.get(quad * QUAD + 4);
+	}
+
+	float v(final int quad) {
+		return quads.get(quad * QUAD + 5);
+	}
+
+	void clear() {
+		quads.clear();
+	}
+
+	static Texture texture(final int width, final int height) {
+		if (Gdx.gl == null) {
+			Gdx.gl = Gdx.gl20 = stub(GL20.class);
+			Gdx.graphics = stub(Graphics.class);
+		}
+		return new Texture(new TextureData() {
+
+			@Override
+			public TextureDataType getType() {
+				return TextureDataType.Custom;
+			}
+
+			@Override
+			public boolean isPrepared() {
+				return true;
+			}
+
+			@Override
+			public void prepare() {}
+
+			@Override
+			public Pixmap consumePixmap() {
+				return null;
+			}
+
+			@Override
+			public boolean disposePixmap() {
+				return false;
+			}
+
+			@Override
+			public void consumeCustomData(final int target) {}
+
+			@Override
+			public int getWidth() {
+				return width;
+			}
+
+			@Override
+			public int getHeight() {
+				return height;
+			}
+
+			@Override
+			public Pixmap.Format getFormat() {
+				return Pixmap.Format.RGBA8888;
+			}
+
+			@Override
+			public boolean useMipMaps() {
+				return false;
+			}
+
+			@Override
+			public boolean isManaged() {
+				return false;
+			}
+
+		});
+	}
+
+	private static <T> T stub(final Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> defaultValue(method)));
+	}
+
+	private static Object defaultValue(final Method method) {
+		final Class<?> type = method.getReturnType();
+		if (type == boolean.class)
+			return false;
+		if (type == int.class)
+			return 0;
+		if (type == float.class)
+			return 0f;
+		if (type == long.class)
+			return 0L;
+		if (type == double.class)
+			return 0d;
+		return null;
+	}
+
+}
@@ -0,0 +1,90 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/* Frames are laid out side by side on one texture, so the frame a quad was drawn from follows from its u. */
+class TileAnimationTest {
+
+	private static final int FRAMES = 3;
+
+	private TileLayer layer;
+	private TextureRegion[] frames;
+	private RecordingBatch recorder;
+
+	@BeforeEach
+	void setUp() {
+		final Texture texture = RecordingBatch.texture(64 * FRAMES, 64);
+		frames = new TextureRegion[FRAMES];
+		for (int i = 0; i < FRAMES; i++)
+			frames[i] = new TextureRegion(texture, i * 64, 0, 64, 64);
+		layer = new TileLayer(10, 6, 16f, 16f, 1f, false);
+		for (int y = 1; y < 5; y++)
+			for (int x = 1; x < 9; x++)
+				layer.tileAt(x, y, true);
+		layer.setView(0f, 0f, 160f, 96f);
+		recorder = new RecordingBatch();
+	}
+
+	@Test
+	void framesFollowAnimationTime() {
+		layer.setAnimatedTileSet(frames, 0.5f);
+		assertEquals(FRAMES, layer.getAnimationFrames());
+		final float[] times = {0f, 0.49f, 0.5f, 1.2f, 1.5f, 2.6f, -0.2f};
+		final int[] expected = {0, 0, 1, 2, 0, 2, 2};
+		for (int i = 0; i < times.length; i++) {
+			layer.setAnimationTime(times[i]);
+			assertFrames(expected[i]);
+		}
+
+		layer.setAnimationTime(0f);
+		layer.updateAnimation(0.3f);
+		layer.updateAnimation(0.3f);
+		assertFrames(1);
+
+		layer.clearAnimation();
+		assertFrames(0);
+	}
+
+	@Test
+	void phasedTilesOffsetByHash() {
+		layer.setAnimatedTileSet(frames, 1f, true);
+		for (int time = 0; time < FRAMES; time++) {
+			layer.setAnimationTime(time);
+			recorder.clear();
+			layer.render(recorder.batch);
+			assertTrue(recorder.size() > 0);
+			for (int i = 0; i < recorder.size(); i++) {
+				final int x = Math.round((recorder.x(i) - layer.getOffsetX()) / 16f);
+				final int y = Math.round((recorder.y(i) - layer.getOffsetY()) / 16f);
+				assertEquals((time + (TileLayer.hash(x, y) >>> 16)) % FRAMES, frame(i), "cell " + x + ", " + y);
+			}
+		}
+	}
+
+	@Test
+	void framesMustShareTexture() {
+		final TextureRegion[] mixed = {frames[0], new TextureRegion(RecordingBatch.texture(64, 64))};
+		assertThrows(IllegalArgumentException.class, () -> layer.setAnimatedTileSet(mixed, 1f));
+		assertThrows(IllegalArgumentException.class, () -> layer.setAnimatedTileSet(frames, 0f));
+	}
+
+	private void assertFrames(final int expected) {
+		recorder.clear();
+		layer.render(recorder.batch);
+		assertTrue(recorder.size() > 0);
+		for (int i = 0; i < recorder.size(); i++)
+			assertEquals(expected, frame(i));
+	}
+
+	private int frame(final int quad) {
+		return (int) (recorder.u(quad) * FRAMES);
+	}
+
+}
@@ -0,0 +1,94 @@
+package me.nulldoubt.advancedtilemaps;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TileDeltaTest {
+
+	private static final int TILES_X = 150;
+	private static final int TILES_Y = 90;
+
+	@Test
+	void xorDeltaTurnsBaseIntoCurrent() {
+		final Random random = new Random(27);
+		final TileLayer base = randomLayer(random);
+		final TileLayer current = copy(base);
+		edit(current, random, 300);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TileDelta.write(base, current, out);
+		final int version = TileDelta.apply(base, new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(current.getVersion(), version);
+		assertTiles(current, base);
+	}
+
+	@Test
+	void unchangedLayersWriteNoChunks() {
+		final TileLayer base = randomLayer(new Random(1));
+		assertEquals(0, TileDelta.write(base, copy(base), new ByteArrayOutputStream()));
+	}
+
+	/* A replica kept in sync by streaming the chunks edited since the last version sent, as a server would. */
+	@Test
+	void versionDeltasKeepReplicaInSync() throws IOException {
+		final Random random = new Random(42);
+		final TileLayer server = randomLayer(random);
+		final TileLayer replica = copy(server);
+
+		final PipedInputStream in = new PipedInputStream(1 << 20);
+		final PipedOutputStream out = new PipedOutputStream(in);
+		int sent = server.getVersion();
+		for (int frame = 0; frame < 20; frame++) {
+			edit(server, random, 1 + random.nextInt(40));
+			TileDelta.write(server, sent, out);
+			sent = TileDelta.apply(replica, in);
+			assertEquals(server.getVersion(), sent);
+			assertTiles(server, replica);
+		}
+		assertEquals(0, in.available());
+	}
+
+	private static TileLayer randomLayer(final Random random) {
+		final TileLayer layer = new TileLayer(TILES_X, TILES_Y, 16f, 16f, 1f, false);
+		for (int y = 0; y < TILES_Y; y++)
+			for (int x = 0; x < TILES_X; x++)
+				if (random.nextInt(3) == 0)
+					layer.tileAt(x, y, true);
+		return layer;
+	}
+
+	private static TileLayer copy(final TileLayer layer) {
+		final TileLayer copy = new TileLayer(TILES_X, TILES_Y, 16f, 16f, 1f, false);
+		for (int y = 0; y < TILES_Y; y++)
+			for (int x = 0; x < TILES_X; x++)
+				copy.tileAt(x, y, layer.tileAt(x, y));
+		return copy;
+	}
+
+	private static void edit(final TileLayer layer, final Random random, final int edits) {
+		for (int i = 0; i < edits; i++) {
+			final int x = random.nextInt(TILES_X);
+			final int y = random.nextInt(TILES_Y);
+			if (i % 50 == 49)
+				layer.floodFill(x, y, !layer.tileAt(x, y));
+			else
+				layer.tileAt(x, y, random.nextBoolean());
+		}
+	}
+
+	private static void assertTiles(final TileLayer expected, final TileLayer actual) {
+		for (int y = 0; y < TILES_Y; y++)
+			for (int x = 0; x < TILES_X; x++)
+				assertEquals(expected.tileAt(x, y), actual.tileAt(x, y), "tile " + x + ", " + y);
+	}
+
+}
@@ -0,0 +1,71 @@
+package me.nulldoubt.advancedtilemaps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileDistanceFieldTest {
+
+	@Test
+	void matchesBruteForce() {
+		final Random random = new Random(43);
+		final TileGrid grid = new TileGrid(70, 45, false);
+		for (int i = 0; i < 12; i++)
+			grid.tileAt(random.nextInt(70), random.nextInt(45), true);
+		final TileDistanceField field = new TileDistanceField(grid, true);
+		for (int y = 0; y < 45; y++) {
+			for (int x = 0; x < 70; x++) {
+				int nearest = TileDistanceField.INFINITE;
+				for (int ty = 0; ty < 45; ty++)
+					for (int tx = 0; tx < 70; tx++)
+						if (grid.tileAt(tx, ty))
+							nearest = Math.min(nearest, (tx - x) * (tx - x) + (ty - y) * (ty - y));
+				assertEquals(nearest, field.getSquaredDistance(x, y), "tile " + x + ", " + y);
+			}
+		}
+	}
+
+	@Test
+	void updatesMatchFreshFields() {
+		final Random random = new Random(44);
+		for (final int[] size : new int[][]{{200, 170}, {300, 64}}) {
+			final TileGrid grid = new TileGrid(size[0], size[1], false);
+			for (int i = 0; i < 40; i++)
+				grid.tileAt(random.nextInt(size[0]), random.nextInt(size[1]), true);
+			final TileDistanceField field = new TileDistanceField(grid, true);
+			final TileDistanceField inverse = new TileDistanceField(grid, false);
+			for (int round = 0; round < 60; round++) {
+				for (int i = random.nextInt(4); i >= 0; i--)
+					grid.tileAt(random.nextInt(size[0]), random.nextInt(size[1]), random.nextInt(3) == 0);
+				if (round == 30)
+					grid.fill(false);
+				field.update();
+				inverse.update();
+				assertArrayEquals(new TileDistanceField(grid, true).getSquaredDistances(), field.getSquaredDistances(), "round " + round);
+				assertArrayEquals(new TileDistanceField(grid, false).getSquaredDistances(), inverse.getSquaredDistances(), "round " + round);
+			}
+		}
+	}
+
+	/* A single edit among tiles some 32 apart only reaches about as far as the tiles around it. */
+	@Test
+	void updatesStayLocal() {
+		final TileGrid grid = new TileGrid(1024, 1024, false);
+		for (int y = 16; y < 1024; y += 32)
+			for (int x = 16; x < 1024; x += 32)
+				grid.tileAt(x, y, true);
+		final TileDistanceField field = new TileDistanceField(grid, true);
+
+		grid.tileAt(500, 500, true);
+		assertTrue(field.update() < 256, "rows recomputed after setting a tile");
+		grid.tileAt(496, 496, false);
+		assertTrue(field.update() < 256, "rows recomputed after clearing a tile");
+		assertEquals(0, field.update());
+		assertArrayEquals(new TileDistanceField(grid, true).getSquaredDistances(), field.getSquaredDistances());
+	}
+
+}
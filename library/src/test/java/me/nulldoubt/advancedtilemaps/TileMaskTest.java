@@ -0,0 +1,69 @@
+package me.nulldoubt.advancedtilemaps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/* Compares the word-parallel auto-tile indices against the per-tile neighbor lookup they replaced. */
+class TileMaskTest {
+
+	@Test
+	void singleTileEdits() {
+		final Random random = new Random(30);
+		for (final int[] size : new int[][]{{1, 1}, {63, 65}, {64, 64}, {130, 70}}) {
+			final TileLayer layer = new TileLayer(size[0], size[1], 16f, 16f, 1f, false);
+			for (int i = 0; i < 2000; i++)
+				layer.tileAt(random.nextInt(size[0]), random.nextInt(size[1]), random.nextBoolean());
+			assertIndices(layer);
+		}
+	}
+
+	@Test
+	void chunkBoundaries() {
+		final TileLayer layer = new TileLayer(192, 129, 16f, 16f, 1f, false);
+		for (int y = 0; y < 129; y++)
+			for (final int x : new int[]{0, 63, 64, 127, 128, 191})
+				layer.tileAt(x, y, true);
+		for (int x = 0; x < 192; x++)
+			layer.tileAt(x, 64, true);
+		assertIndices(layer);
+		layer.tileAt(64, 64, false);
+		layer.tileAt(127, 128, false);
+		assertIndices(layer);
+	}
+
+	@Test
+	void floodFills() {
+		final Random random = new Random(31);
+		final TileLayer layer = new TileLayer(150, 100, 16f, 16f, 1f, false);
+		for (int i = 0; i < 3000; i++)
+			layer.tileAt(random.nextInt(150), random.nextInt(100), true);
+		for (int i = 0; i < 20; i++) {
+			final int x = random.nextInt(150);
+			final int y = random.nextInt(100);
+			layer.floodFill(x, y, !layer.tileAt(x, y));
+			assertIndices(layer);
+		}
+		layer.fill(false);
+		assertIndices(layer);
+	}
+
+	private static void assertIndices(final TileLayer layer) {
+		for (int y = 0; y < layer.getTilesY(); y++)
+			for (int x = 0; x < layer.getTilesX(); x++)
+				assertEquals(TileLayer.getAutoTileIndex(naiveMask(layer, x, y)), layer.indexAt(x, y), "cell " + x + ", " + y);
+	}
+
+	/* The dual-grid cell at x, y covers the tiles at x - 1 and x, y - 1 and y. */
+	private static int naiveMask(final TileLayer layer, final int x, final int y) {
+		int mask = 0;
+		mask |= layer.tileAt(x - 1, y) ? (1 << 3) : 0;
+		mask |= layer.tileAt(x, y) ? (1 << 2) : 0;
+		mask |= layer.tileAt(x - 1, y - 1) ? (1 << 1) : 0;
+		mask |= layer.tileAt(x, y - 1) ? 1 : 0;
+		return mask;
+	}
+
+}
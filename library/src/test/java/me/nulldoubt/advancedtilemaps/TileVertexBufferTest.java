@@ -0,0 +1,80 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import me.nulldoubt.advancedtilemaps.TileLayer.IRenderStrategy;
+import me.nulldoubt.advancedtilemaps.TileLayer.RenderStrategy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/* The buffer must submit exactly the quads a sequential render draws, in the same order. */
+class TileVertexBufferTest {
+
+	private TileLayer layer;
+	private TextureRegion tileSet;
+
+	@BeforeEach
+	void setUp() {
+		tileSet = new TextureRegion(RecordingBatch.texture(64, 64));
+		layer = new TileLayer(200, 150, 16f, 16f, 0.5f, false);
+		layer.setTileSet(tileSet);
+		final Random random = new Random(47);
+		for (int i = 0; i < 12000; i++)
+			layer.tileAt(random.nextInt(200), random.nextInt(150), true);
+	}
+
+	@Test
+	void matchesBatchForEveryStrategy() {
+		final TileVertexBuffer vertices = new TileVertexBuffer();
+		for (final RenderStrategy strategy : RenderStrategy.values()) {
+			layer.setRenderStrategy(strategy);
+			for (final float[] view : new float[][]{{0f, 0f, 1600f, 1200f}, {300f, 180f, 700f, 420f}, {-50f, -50f, 100f, 100f}}) {
+				layer.setView(view[0], view[1], view[2], view[3]);
+				assertSameQuads(vertices);
+			}
+		}
+	}
+
+	@Test
+	void keepsDirectQuadsInOrder() {
+		final IRenderStrategy chunked = RenderStrategy.VIEW_TILES_VIEW_QUADS;
+		final TextureRegion marker = new TextureRegion(tileSet, 0, 0, 4, 4);
+		layer.setRenderStrategy((tileLayer, view, sink) -> {
+			sink.draw(marker, -1f, -1f, 1f, 1f);
+			chunked.render(tileLayer, view, sink);
+			sink.draw(marker, -2f, -2f, 1f, 1f);
+		});
+		layer.setView(100f, 100f, 500f, 300f);
+
+		final RecordingBatch recorder = assertSameQuads(new TileVertexBuffer());
+		assertEquals(-1f, recorder.x(0));
+		assertEquals(-2f, recorder.x(recorder.size() - 1));
+	}
+
+	/* Cold chunks are expanded while rendering, so the buffer falls back to generating them on the calling thread. */
+	@Test
+	void matchesBatchWithColdChunks() {
+		layer.setHotChunks(2);
+		layer.setView(0f, 0f, 1600f, 1200f);
+		assertSameQuads(new TileVertexBuffer());
+	}
+
+	private RecordingBatch assertSameQuads(final TileVertexBuffer vertices) {
+		final RecordingBatch expected = new RecordingBatch();
+		layer.render(expected.batch);
+		final int quads = layer.getQuadsRendered();
+
+		final RecordingBatch actual = new RecordingBatch();
+		layer.render(actual.batch, vertices);
+		assertEquals(quads, layer.getQuadsRendered());
+		assertTrue(expected.size() > 0);
+		assertArrayEquals(expected.quads.toArray(), actual.quads.toArray());
+		return actual;
+	}
+
+}
@@ -0,0 +1,95 @@
+package me.nulldoubt.advancedtilemaps;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import me.nulldoubt.advancedtilemaps.TileGrid.CompressionStrategy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldLayerTest {
+
+	@TempDir
+	File directory;
+
+	/* Chunks of 256² tiles hold runs and coordinates beyond the range of a signed short. */
+	@Test
+	void savedChunksReadBack() {
+		for (final CompressionStrategy strategy : CompressionStrategy.values()) {
+			final File world = new File(directory, strategy.name());
+			final int chunkTiles = 256;
+			final Random random = new Random(33);
+			final boolean[][] expected = new boolean[chunkTiles * 3][chunkTiles];
+
+			final WorldLayer writer = new WorldLayer(world, chunkTiles, 16f, 16f, 1f, 4);
+			writer.setCompressionStrategy(strategy);
+			for (int y = 0; y < chunkTiles; y++) {
+				for (int x = 0; x < chunkTiles; x++) {
+					// A full chunk, a noisy one, and one edited back to empty.
+					expected[x][y] = true;
+					expected[x + chunkTiles][y] = random.nextInt(7) == 0;
+					writer.tileAt(x, y, true);
+					writer.tileAt(x + chunkTiles, y, expected[x + chunkTiles][y]);
+				}
+			}
+			writer.tileAt(chunkTiles * 2 + 200, chunkTiles - 1, true);
+			writer.tileAt(chunkTiles * 2 + 200, chunkTiles - 1, false);
+			writer.dispose();
+
+			final WorldLayer reader = new WorldLayer(world, chunkTiles, 16f, 16f, 1f, 4);
+			for (int y = 0; y < chunkTiles; y++)
+				for (int x = 0; x < chunkTiles * 3; x++)
+					assertEquals(expected[x][y], reader.tileAt(x, y), strategy + " tile " + x + ", " + y);
+			reader.dispose();
+		}
+	}
+
+	@Test
+	void evictionStaysWithinBudget() {
+		final int memoryBudget = 6;
+		final WorldLayer world = new WorldLayer(directory, 16, 1f, 1f, 1f, memoryBudget);
+		world.setView(0f, 0f, 20f, 20f);
+		world.tileAt(5, 5, true);
+		world.tileAt(-3, 40, true);
+
+		for (int step = 0; step <= 80; step++) {
+			world.setView(step * 8f, step * 3f, 20f, 20f);
+			// The view spans at most 3 x 3 chunks, plus a margin of one chunk around them.
+			assertTrue(world.getLoadedChunks() <= 5 * 5 + memoryBudget, "loaded " + world.getLoadedChunks() + " at step " + step);
+		}
+		assertFalse(world.isLoaded(0, 0));
+		assertFalse(world.isLoaded(-1, 2));
+
+		world.setView(0f, 0f, 20f, 20f);
+		assertTrue(world.tileAt(5, 5));
+		assertTrue(world.tileAt(-3, 40));
+		assertFalse(world.tileAt(6, 5));
+		world.dispose();
+	}
+
+	/* Cells are offset by half a tile, so the last column of a chunk is partly visible from the chunk east of it. */
+	@Test
+	void renderIncludesHalfTileStrip() {
+		final WorldLayer world = new WorldLayer(directory, 8, 16f, 16f, 1f, 4);
+		world.setTileSet(new TextureRegion(RecordingBatch.texture(64, 64)));
+		for (int y = 0; y < 8; y++)
+			for (int x = 0; x < 16; x++)
+				world.tileAt(x, y, true);
+
+		final RecordingBatch recorder = new RecordingBatch();
+		world.setView(132f, 0f, 64f, 64f);
+		world.render(recorder.batch);
+
+		boolean strip = false;
+		for (int i = 0; i < recorder.size(); i++)
+			strip |= recorder.x(i) == 120f;
+		assertTrue(strip, "cell 7 of chunk 0 was not drawn");
+		world.dispose();
+	}
+
+}